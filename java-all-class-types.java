@@ -222,7 +222,15 @@ sealed class Shape permits Circle, Rectangle, Triangle {
         this.color = color;
     }
     
+    public String getColor() { return color; }
+    
     public abstract double calculateArea();
+    
+    public abstract double calculatePerimeter();
+    
+    // Axis-aligned bounding box extents
+    public abstract double calculateBoundingWidth();
+    public abstract double calculateBoundingHeight();
 }
 
 // Permitted subclasses
@@ -234,10 +242,37 @@ final class Circle extends Shape {
         this.radius = radius;
     }
     
+    public double getRadius() { return radius; }
+    
     @Override
     public double calculateArea() {
         return Math.PI * radius * radius;
     }
+    
+    @Override
+    public double calculatePerimeter() {
+        return 2 * Math.PI * radius;
+    }
+    
+    @Override
+    public double calculateBoundingWidth() { return 2 * radius; }
+    
+    @Override
+    public double calculateBoundingHeight() { return 2 * radius; }
+    
+    // Value-based equality: same subtype, color and dimensions
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) return true;
+        if (obj == null || getClass() != obj.getClass()) return false;
+        Circle circle = (Circle) obj;
+        return Double.compare(radius, circle.radius) == 0 && Objects.equals(color, circle.color);
+    }
+    
+    @Override
+    public int hashCode() {
+        return Objects.hash(color, radius);
+    }
 }
 
 final class Rectangle extends Shape {
@@ -249,10 +284,38 @@ final class Rectangle extends Shape {
         this.height = height;
     }
     
+    public double getWidth() { return width; }
+    public double getHeight() { return height; }
+    
     @Override
     public double calculateArea() {
         return width * height;
     }
+    
+    @Override
+    public double calculatePerimeter() {
+        return 2 * (width + height);
+    }
+    
+    @Override
+    public double calculateBoundingWidth() { return width; }
+    
+    @Override
+    public double calculateBoundingHeight() { return height; }
+    
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) return true;
+        if (obj == null || getClass() != obj.getClass()) return false;
+        Rectangle rectangle = (Rectangle) obj;
+        return Double.compare(width, rectangle.width) == 0 && Double.compare(height, rectangle.height) == 0
+            && Objects.equals(color, rectangle.color);
+    }
+    
+    @Override
+    public int hashCode() {
+        return Objects.hash(color, width, height);
+    }
 }
 
 non-sealed class Triangle extends Shape {
@@ -264,10 +327,41 @@ non-sealed class Triangle extends Shape {
         this.height = height;
     }
     
+    public double getBase() { return base; }
+    public double getHeight() { return height; }
+    
     @Override
     public double calculateArea() {
         return 0.5 * base * height;
     }
+    
+    // Base and height alone do not fix the side lengths; assume an isosceles
+    // triangle (apex above the midpoint of the base)
+    @Override
+    public double calculatePerimeter() {
+        return base + 2 * Math.sqrt(0.25 * base * base + height * height);
+    }
+    
+    @Override
+    public double calculateBoundingWidth() { return base; }
+    
+    @Override
+    public double calculateBoundingHeight() { return height; }
+    
+    // getClass() check: a subclass of this non-sealed class never equals a plain Triangle
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) return true;
+        if (obj == null || getClass() != obj.getClass()) return false;
+        Triangle triangle = (Triangle) obj;
+        return Double.compare(base, triangle.base) == 0 && Double.compare(height, triangle.height) == 0
+            && Objects.equals(color, triangle.color);
+    }
+    
+    @Override
+    public int hashCode() {
+        return Objects.hash(color, base, height);
+    }
 }
 
 // 13. GENERIC CLASS
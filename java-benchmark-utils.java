@@ -0,0 +1,44 @@
+// =============================================================================
+// MINIMAL BENCHMARK HARNESS FOR THE PERFORMANCE NOTES
+// =============================================================================
+// The benchmark classes in the other notes files use this instead of pulling in
+// JMH, so everything still compiles with plain javac. Numbers are indicative
+// only: run with a fixed heap (-Xms/-Xmx) and compare within the same JVM run.
+
+import java.util.function.*;
+
+// UTILITY CLASS
+// Command: final class with private constructor and static methods
+final class MicroBench {
+    // Results are folded in here so the JIT cannot discard the measured work
+    private static volatile double sink;
+
+    private MicroBench() {
+        throw new AssertionError("Utility class cannot be instantiated");
+    }
+
+    // Runs body warmup times, then measures iterations runs; returns ms per run
+    public static double measure(String label, int warmup, int iterations, DoubleSupplier body) {
+        double blackhole = 0;
+        for (int i = 0; i < warmup; i++) {
+            blackhole += body.getAsDouble();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            blackhole += body.getAsDouble();
+        }
+        double msPerRun = (System.nanoTime() - start) / 1e6 / iterations;
+        sink += blackhole;
+        System.out.printf("%-40s %10.3f ms/op%n", label, msPerRun);
+        return msPerRun;
+    }
+
+    // Heap in use after a best-effort GC, for rough footprint comparisons
+    public static long usedHeapBytes() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
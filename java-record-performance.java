@@ -0,0 +1,2330 @@
+// =============================================================================
+// PERSONRECORD AT SCALE
+// =============================================================================
+// Companion to java-all-class-types.java (PersonRecord) and
+// java-benchmark-utils.java. Compile them together and run from the class
+// directory (PersonQuery reads its template's .class file as a resource):
+//     javac -d out java-all-class-types.java java-benchmark-utils.java java-record-performance.java
+//     java -cp out RecordPerformanceDemo
+//
+// Tens of millions of PersonRecord objects cost a header, three fields and two
+// String objects (each with its own byte[]) per row, and every filter walks
+// that object graph. The structures here keep the same data in a handful of
+// primitive arrays and only create PersonRecord objects when asked to.
+
+import java.io.*;
+import java.lang.constant.ConstantDescs;
+import java.lang.invoke.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+// 1. COLUMNAR TABLE
+// Technique: int[] ages + offset-indexed UTF-8 byte buffers for name and email
+//
+// Row r's name is nameBytes[nameOffsets[r] .. nameOffsets[r + 1]), likewise for
+// email, so a table holds five arrays no matter how many rows it has. Filters
+// compare raw bytes (UTF-8 preserves equality and prefix/suffix relations) and
+// return a RowSelection bitmap; nothing is decoded or allocated per row.
+// Rows are validated like the PersonRecord compact constructor.
+class PersonTable {
+    private int[] ages;
+    private byte[] nameBytes, emailBytes;
+    private int[] nameOffsets, emailOffsets;
+    private int size;
+
+    public PersonTable() {
+        this(16);
+    }
+
+    public PersonTable(int initialCapacity) {
+        int capacity = Math.max(initialCapacity, 1);
+        ages = new int[capacity];
+        nameOffsets = new int[capacity + 1];
+        emailOffsets = new int[capacity + 1];
+        // Assume short strings; the buffers grow geometrically like the columns
+        nameBytes = new byte[capacity * 8];
+        emailBytes = new byte[capacity * 16];
+    }
+
+    public static PersonTable of(Collection<PersonRecord> people) {
+        PersonTable table = new PersonTable(people.size());
+        for (PersonRecord person : people) {
+            table.add(person.name(), person.age(), person.email());
+        }
+        return table;
+    }
+
+    public int add(PersonRecord person) {
+        return add(person.name(), person.age(), person.email());
+    }
+
+    public int add(String name, int age, String email) {
+        if (age < 0) {
+            throw new IllegalArgumentException("Age cannot be negative");
+        }
+        byte[] nameUtf8 = name.getBytes(StandardCharsets.UTF_8);
+        byte[] emailUtf8 = email.getBytes(StandardCharsets.UTF_8);
+        growRows();
+        nameBytes = reserve(nameBytes, nameOffsets[size], nameUtf8.length);
+        emailBytes = reserve(emailBytes, emailOffsets[size], emailUtf8.length);
+        System.arraycopy(nameUtf8, 0, nameBytes, nameOffsets[size], nameUtf8.length);
+        System.arraycopy(emailUtf8, 0, emailBytes, emailOffsets[size], emailUtf8.length);
+        return commitRow(age, nameUtf8.length, emailUtf8.length);
+    }
+
+    // Loader entry point: copies already UTF-8 encoded fields straight out of a
+    // (mapped) buffer, so no String is created for them
+    int addUtf8(ByteBuffer source, int nameFrom, int nameLength, int age, int emailFrom, int emailLength) {
+        if (age < 0) {
+            throw new IllegalArgumentException("Age cannot be negative");
+        }
+        growRows();
+        nameBytes = reserve(nameBytes, nameOffsets[size], nameLength);
+        emailBytes = reserve(emailBytes, emailOffsets[size], emailLength);
+        source.get(nameFrom, nameBytes, nameOffsets[size], nameLength);
+        source.get(emailFrom, emailBytes, emailOffsets[size], emailLength);
+        return commitRow(age, nameLength, emailLength);
+    }
+
+    private void growRows() {
+        if (size == ages.length) {
+            int capacity = size * 2;
+            ages = Arrays.copyOf(ages, capacity);
+            nameOffsets = Arrays.copyOf(nameOffsets, capacity + 1);
+            emailOffsets = Arrays.copyOf(emailOffsets, capacity + 1);
+        }
+    }
+
+    private static byte[] reserve(byte[] buffer, int at, int length) {
+        if (at + length > buffer.length) {
+            return Arrays.copyOf(buffer, Math.max(buffer.length * 2, at + length));
+        }
+        return buffer;
+    }
+
+    private int commitRow(int age, int nameLength, int emailLength) {
+        ages[size] = age;
+        nameOffsets[size + 1] = nameOffsets[size] + nameLength;
+        emailOffsets[size + 1] = emailOffsets[size] + emailLength;
+        return size++;
+    }
+
+    public int size() { return size; }
+
+    public int age(int row) {
+        Objects.checkIndex(row, size);
+        return ages[row];
+    }
+
+    public String name(int row) {
+        Objects.checkIndex(row, size);
+        return new String(nameBytes, nameOffsets[row], nameOffsets[row + 1] - nameOffsets[row], StandardCharsets.UTF_8);
+    }
+
+    public String email(int row) {
+        Objects.checkIndex(row, size);
+        return new String(emailBytes, emailOffsets[row], emailOffsets[row + 1] - emailOffsets[row], StandardCharsets.UTF_8);
+    }
+
+    public PersonRecord get(int row) {
+        return new PersonRecord(name(row), age(row), email(row));
+    }
+
+    public List<PersonRecord> materialize(RowSelection selection) {
+        List<PersonRecord> people = new ArrayList<>(selection.cardinality());
+        for (int row = selection.nextSetBit(0); row >= 0; row = selection.nextSetBit(row + 1)) {
+            people.add(get(row));
+        }
+        return people;
+    }
+
+    // Branch-free: one 64-row word at a time, inRange as a sign bit, so the
+    // loop has no data-dependent jumps for the JIT to mispredict
+    public RowSelection ageBetween(int minInclusive, int maxInclusive) {
+        RowSelection selection = new RowSelection(size);
+        if (minInclusive > maxInclusive) {
+            return selection;
+        }
+        long span = (long) maxInclusive - minInclusive;
+        long[] words = selection.words();
+        for (int base = 0; base < size; base += 64) {
+            int end = Math.min(base + 64, size);
+            long word = 0;
+            for (int row = base; row < end; row++) {
+                long offset = ages[row] - (long) minInclusive;
+                word |= (~(offset | (span - offset)) >>> 63) << (row - base);
+            }
+            words[base >>> 6] = word;
+        }
+        return selection;
+    }
+
+    public RowSelection nameEquals(String name) {
+        return nameEquals(name, null);
+    }
+
+    public RowSelection nameStartsWith(String prefix) {
+        return nameStartsWith(prefix, null);
+    }
+
+    public RowSelection emailEquals(String email) {
+        return emailEquals(email, null);
+    }
+
+    public RowSelection emailEndsWith(String suffix) {
+        return emailEndsWith(suffix, null);
+    }
+
+    // Refining variants: only rows already set in within (null = all rows) are
+    // compared, so a string test after a selective filter touches few rows
+    public RowSelection nameEquals(String name, RowSelection within) {
+        return matchBytes(nameBytes, nameOffsets, name.getBytes(StandardCharsets.UTF_8), Match.EQUALS, within);
+    }
+
+    public RowSelection nameStartsWith(String prefix, RowSelection within) {
+        return matchBytes(nameBytes, nameOffsets, prefix.getBytes(StandardCharsets.UTF_8), Match.PREFIX, within);
+    }
+
+    public RowSelection emailEquals(String email, RowSelection within) {
+        return matchBytes(emailBytes, emailOffsets, email.getBytes(StandardCharsets.UTF_8), Match.EQUALS, within);
+    }
+
+    public RowSelection emailEndsWith(String suffix, RowSelection within) {
+        return matchBytes(emailBytes, emailOffsets, suffix.getBytes(StandardCharsets.UTF_8), Match.SUFFIX, within);
+    }
+
+    private enum Match { EQUALS, PREFIX, SUFFIX }
+
+    private RowSelection matchBytes(byte[] bytes, int[] offsets, byte[] key, Match match, RowSelection within) {
+        RowSelection selection = new RowSelection(size);
+        if (within != null && within.size() != size) {
+            throw new IllegalArgumentException("Selection size " + within.size() + " does not match table size " + size);
+        }
+        int row = within == null ? (size > 0 ? 0 : -1) : within.nextSetBit(0);
+        while (row >= 0) {
+            int from = offsets[row], length = offsets[row + 1] - from;
+            boolean hit = switch (match) {
+                case EQUALS -> length == key.length
+                    && Arrays.equals(bytes, from, from + length, key, 0, key.length);
+                case PREFIX -> length >= key.length
+                    && Arrays.equals(bytes, from, from + key.length, key, 0, key.length);
+                case SUFFIX -> length >= key.length
+                    && Arrays.equals(bytes, from + length - key.length, from + length, key, 0, key.length);
+            };
+            if (hit) {
+                selection.set(row);
+            }
+            row = within == null ? (row + 1 < size ? row + 1 : -1) : within.nextSetBit(row + 1);
+        }
+        return selection;
+    }
+
+    // Hash of row's UTF-8 email bytes, equal to hashUtf8 of the same email's bytes
+    int emailHash(int row) {
+        return hashUtf8(emailBytes, emailOffsets[row], emailOffsets[row + 1]);
+    }
+
+    boolean emailMatches(int row, byte[] key) {
+        int from = emailOffsets[row];
+        return emailOffsets[row + 1] - from == key.length
+            && Arrays.equals(emailBytes, from, from + key.length, key, 0, key.length);
+    }
+
+    // Polynomial hash with a murmur3 finalizer, so low bits are usable as a table index
+    static int hashUtf8(byte[] bytes, int from, int to) {
+        int h = 0;
+        for (int i = from; i < to; i++) {
+            h = 31 * h + bytes[i];
+        }
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        return h ^ (h >>> 16);
+    }
+
+    // Total bytes held by the table's arrays (capacity, not just size)
+    public long footprintBytes() {
+        return 4L * ages.length + 4L * nameOffsets.length + 4L * emailOffsets.length
+            + nameBytes.length + emailBytes.length;
+    }
+}
+
+// 2. SELECTION BITMAP
+// Command: long[] words, bit r set when row r matches
+//
+// One bit per row, so a selection over 10 million rows is 1.25 MB. AND/OR/NOT
+// combine whole words, which is how multi-column filters compose cheaply.
+final class RowSelection {
+    private final long[] words;
+    private final int size;
+
+    public RowSelection(int size) {
+        this.size = size;
+        this.words = new long[(size + 63) >>> 6];
+    }
+
+    long[] words() { return words; }
+
+    public int size() { return size; }
+
+    public void set(int row) {
+        Objects.checkIndex(row, size);
+        words[row >>> 6] |= 1L << row;
+    }
+
+    public boolean get(int row) {
+        Objects.checkIndex(row, size);
+        return (words[row >>> 6] & (1L << row)) != 0;
+    }
+
+    public int cardinality() {
+        int count = 0;
+        for (long word : words) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    // Next selected row at or after from, or -1
+    public int nextSetBit(int from) {
+        if (from >= size) {
+            return -1;
+        }
+        int index = from >>> 6;
+        long word = words[index] & (-1L << from);
+        while (word == 0) {
+            if (++index == words.length) {
+                return -1;
+            }
+            word = words[index];
+        }
+        return (index << 6) + Long.numberOfTrailingZeros(word);
+    }
+
+    public void forEach(IntConsumer action) {
+        for (int row = nextSetBit(0); row >= 0; row = nextSetBit(row + 1)) {
+            action.accept(row);
+        }
+    }
+
+    public RowSelection and(RowSelection other) {
+        checkSize(other);
+        RowSelection result = new RowSelection(size);
+        for (int i = 0; i < words.length; i++) {
+            result.words[i] = words[i] & other.words[i];
+        }
+        return result;
+    }
+
+    public RowSelection or(RowSelection other) {
+        checkSize(other);
+        RowSelection result = new RowSelection(size);
+        for (int i = 0; i < words.length; i++) {
+            result.words[i] = words[i] | other.words[i];
+        }
+        return result;
+    }
+
+    public RowSelection not() {
+        RowSelection result = new RowSelection(size);
+        for (int i = 0; i < words.length; i++) {
+            result.words[i] = ~words[i];
+        }
+        // Keep bits past the last row clear so cardinality() stays exact
+        if ((size & 63) != 0) {
+            result.words[words.length - 1] &= (1L << size) - 1;
+        }
+        return result;
+    }
+
+    private void checkSize(RowSelection other) {
+        if (other.size != size) {
+            throw new IllegalArgumentException("Selection sizes differ: " + size + " vs " + other.size);
+        }
+    }
+}
+
+// Synthetic inputs shared by the benchmarks in this file
+final class PersonWorkloads {
+    private static final String[] FIRST = {"Ada", "Alan", "Grace", "Linus", "Barbara", "Dennis", "Margaret", "Ken"};
+    private static final String[] LAST = {"Lovelace", "Turing", "Hopper", "Torvalds", "Liskov", "Ritchie", "Hamilton", "Thompson"};
+    private static final String[] DOMAINS = {"email.com", "example.org", "mail.net"};
+
+    private PersonWorkloads() {
+        throw new AssertionError("Utility class cannot be instantiated");
+    }
+
+    // Ages 0-99, emails unique per index
+    public static List<PersonRecord> people(int n, long seed) {
+        Random random = new Random(seed);
+        List<PersonRecord> people = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            String first = FIRST[random.nextInt(FIRST.length)];
+            String last = LAST[random.nextInt(LAST.length)];
+            String email = first.toLowerCase() + "." + last.toLowerCase() + i + "@" + DOMAINS[random.nextInt(DOMAINS.length)];
+            people.add(new PersonRecord(first + " " + last, random.nextInt(100), email));
+        }
+        return people;
+    }
+}
+
+// Stream filter over records vs bitmap scans over columns, plus heap footprint
+class PersonTableBenchmark {
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        long before = MicroBench.usedHeapBytes();
+        List<PersonRecord> people = PersonWorkloads.people(n, 3);
+        long listBytes = MicroBench.usedHeapBytes() - before;
+        PersonTable table = PersonTable.of(people);
+        System.out.printf("Heap: List<PersonRecord> %,d bytes, PersonTable %,d bytes%n",
+            listBytes, table.footprintBytes());
+
+        MicroBench.measure("stream filter age 30..40", 5, 20,
+            () -> people.stream().filter(p -> p.age() >= 30 && p.age() <= 40).count());
+        MicroBench.measure("PersonTable.ageBetween(30, 40)", 5, 20,
+            () -> table.ageBetween(30, 40).cardinality());
+        MicroBench.measure("stream filter age + email suffix", 5, 20,
+            () -> people.stream().filter(p -> p.age() >= 30 && p.age() <= 40 && p.email().endsWith("@mail.net")).count());
+        MicroBench.measure("ageBetween.and(emailEndsWith)", 5, 20,
+            () -> table.ageBetween(30, 40).and(table.emailEndsWith("@mail.net")).cardinality());
+    }
+}
+
+// 3. COMPILED PREDICATE QUERIES
+// Technique: predicate AST -> selectivity-ordered plan -> MethodHandle tree
+//            bound as a constant in a hidden class
+//
+// A PersonPredicate is plain data (records under a sealed interface), so a
+// query can be inspected and rewritten before it runs. PersonQuery.compile:
+//   - flattens nested AND/OR and estimates each leaf's selectivity, either
+//     from a sample of the data or from fixed guesses;
+//   - orders AND children by cost / (1 - selectivity) and OR children by
+//     cost / selectivity, the classic optimal order for short-circuit
+//     evaluation of independent predicates;
+//   - builds one (PersonRecord)boolean MethodHandle from guardWithTest nodes.
+// A MethodHandle held in an ordinary field is opaque to the JIT, so the plan is
+// then bound as the static final PREDICATE of a hidden clone of
+// PersonQueryTemplate (as in java-shape-kernel-generation.java). There it is a
+// constant and the whole tree inlines into the scan loop: no lambda objects,
+// no boxing, no stream pipeline. Over a PersonTable the same plan is run
+// column-at-a-time with RowSelection bitmaps instead.
+sealed interface PersonPredicate {
+    record AgeBetween(int min, int max) implements PersonPredicate {}
+    record NameEquals(String value) implements PersonPredicate {}
+    record NameStartsWith(String prefix) implements PersonPredicate {}
+    record EmailEquals(String value) implements PersonPredicate {}
+    record EmailEndsWith(String suffix) implements PersonPredicate {}
+    record And(List<PersonPredicate> terms) implements PersonPredicate {
+        public And {
+            terms = List.copyOf(terms);
+            if (terms.isEmpty()) {
+                throw new IllegalArgumentException("AND needs at least one term");
+            }
+        }
+    }
+    record Or(List<PersonPredicate> terms) implements PersonPredicate {
+        public Or {
+            terms = List.copyOf(terms);
+            if (terms.isEmpty()) {
+                throw new IllegalArgumentException("OR needs at least one term");
+            }
+        }
+    }
+    record Not(PersonPredicate term) implements PersonPredicate {
+        public Not { Objects.requireNonNull(term); }
+    }
+
+    static PersonPredicate ageBetween(int min, int max) { return new AgeBetween(min, max); }
+    static PersonPredicate nameEquals(String value) { return new NameEquals(value); }
+    static PersonPredicate nameStartsWith(String prefix) { return new NameStartsWith(prefix); }
+    static PersonPredicate emailEquals(String value) { return new EmailEquals(value); }
+    static PersonPredicate emailEndsWith(String suffix) { return new EmailEndsWith(suffix); }
+
+    default PersonPredicate and(PersonPredicate other) { return new And(List.of(this, other)); }
+    default PersonPredicate or(PersonPredicate other) { return new Or(List.of(this, other)); }
+    default PersonPredicate negate() { return new Not(this); }
+
+    // Reference semantics: an interpreter the compiled forms must agree with
+    default boolean test(PersonRecord person) {
+        return switch (this) {
+            case AgeBetween p -> person.age() >= p.min() && person.age() <= p.max();
+            case NameEquals p -> person.name().equals(p.value());
+            case NameStartsWith p -> person.name().startsWith(p.prefix());
+            case EmailEquals p -> person.email().equals(p.value());
+            case EmailEndsWith p -> person.email().endsWith(p.suffix());
+            case And p -> p.terms().stream().allMatch(term -> term.test(person));
+            case Or p -> p.terms().stream().anyMatch(term -> term.test(person));
+            case Not p -> !p.term().test(person);
+        };
+    }
+}
+
+// Never used directly: only its bytes are read. In a hidden clone PREDICATE is
+// a constant MethodHandle, so invokeExact inlines the whole predicate tree.
+final class PersonQueryTemplate {
+    private static final MethodHandle PREDICATE;
+
+    static {
+        try {
+            PREDICATE = MethodHandles.classData(MethodHandles.lookup(), ConstantDescs.DEFAULT_NAME, MethodHandle.class);
+        } catch (IllegalAccessException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private PersonQueryTemplate() {}
+
+    static long count(List<PersonRecord> people) throws Throwable {
+        long count = 0;
+        for (PersonRecord person : people) {
+            if ((boolean) PREDICATE.invokeExact(person)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    static void filter(List<PersonRecord> people, List<PersonRecord> out) throws Throwable {
+        for (PersonRecord person : people) {
+            if ((boolean) PREDICATE.invokeExact(person)) {
+                out.add(person);
+            }
+        }
+    }
+}
+
+final class PersonQuery {
+    static final int SAMPLE_SIZE = 1024;
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+    private static final MethodType TEST = MethodType.methodType(boolean.class, PersonRecord.class);
+    private static final byte[] TEMPLATE_BYTES = readTemplate();
+
+    private final PersonPredicate plan;
+    private final MethodHandle count;
+    private final MethodHandle filter;
+
+    private PersonQuery(PersonPredicate plan) {
+        this.plan = plan;
+        try {
+            MethodHandles.Lookup hidden = LOOKUP.defineHiddenClassWithClassData(TEMPLATE_BYTES, handle(plan), true);
+            Class<?> kernel = hidden.lookupClass();
+            this.count = hidden.findStatic(kernel, "count", MethodType.methodType(long.class, List.class));
+            this.filter = hidden.findStatic(kernel, "filter", MethodType.methodType(void.class, List.class, List.class));
+        } catch (IllegalAccessException | NoSuchMethodException e) {
+            throw new IllegalStateException("Cannot compile query " + plan, e);
+        }
+    }
+
+    // Selectivities from fixed guesses
+    public static PersonQuery compile(PersonPredicate predicate) {
+        return new PersonQuery(optimize(predicate, List.of()));
+    }
+
+    // Selectivities measured on up to SAMPLE_SIZE evenly spaced records
+    public static PersonQuery compile(PersonPredicate predicate, List<PersonRecord> data) {
+        return new PersonQuery(optimize(predicate, sample(data.size(), data::get)));
+    }
+
+    public static PersonQuery compile(PersonPredicate predicate, PersonTable table) {
+        return new PersonQuery(optimize(predicate, sample(table.size(), table::get)));
+    }
+
+    public PersonPredicate plan() { return plan; }
+
+    public long count(List<PersonRecord> people) {
+        try {
+            return (long) count.invokeExact(people);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public List<PersonRecord> filter(List<PersonRecord> people) {
+        List<PersonRecord> out = new ArrayList<>();
+        try {
+            filter.invokeExact(people, out);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+        return out;
+    }
+
+    // Column-at-a-time: each AND term only tests the rows still selected by the
+    // terms before it, and stops once nothing is left
+    public RowSelection select(PersonTable table) {
+        return select(plan, table, null);
+    }
+
+    private static RowSelection select(PersonPredicate predicate, PersonTable table, RowSelection within) {
+        return switch (predicate) {
+            case PersonPredicate.AgeBetween p -> within == null
+                ? table.ageBetween(p.min(), p.max())
+                : table.ageBetween(p.min(), p.max()).and(within);
+            case PersonPredicate.NameEquals p -> table.nameEquals(p.value(), within);
+            case PersonPredicate.NameStartsWith p -> table.nameStartsWith(p.prefix(), within);
+            case PersonPredicate.EmailEquals p -> table.emailEquals(p.value(), within);
+            case PersonPredicate.EmailEndsWith p -> table.emailEndsWith(p.suffix(), within);
+            case PersonPredicate.And p -> {
+                RowSelection result = within;
+                for (PersonPredicate term : p.terms()) {
+                    result = select(term, table, result);
+                    if (result.cardinality() == 0) {
+                        break;
+                    }
+                }
+                yield result;
+            }
+            case PersonPredicate.Or p -> {
+                RowSelection result = select(p.terms().get(0), table, within);
+                for (int i = 1; i < p.terms().size(); i++) {
+                    result = result.or(select(p.terms().get(i), table, within));
+                }
+                yield result;
+            }
+            case PersonPredicate.Not p -> within == null
+                ? select(p.term(), table, null).not()
+                : select(p.term(), table, within).not().and(within);
+        };
+    }
+
+    // -- planning ----------------------------------------------------------
+
+    private static List<PersonRecord> sample(int size, IntFunction<PersonRecord> row) {
+        List<PersonRecord> sample = new ArrayList<>(Math.min(size, SAMPLE_SIZE));
+        int step = Math.max(1, size / SAMPLE_SIZE);
+        for (int index = 0; index < size; index += step) {
+            sample.add(row.apply(index));
+        }
+        return sample;
+    }
+
+    // Planned node with its estimated selectivity and per-row cost
+    private record Planned(PersonPredicate predicate, double selectivity, double cost) {}
+
+    static PersonPredicate optimize(PersonPredicate predicate, List<PersonRecord> sample) {
+        return plan(predicate, sample).predicate();
+    }
+
+    private static Planned plan(PersonPredicate predicate, List<PersonRecord> sample) {
+        return switch (predicate) {
+            case PersonPredicate.And p -> {
+                List<Planned> terms = flatten(p.terms(), PersonPredicate.And.class, sample);
+                terms.sort(Comparator.comparingDouble(t -> t.cost() / Math.max(1e-9, 1 - t.selectivity())));
+                double selectivity = 1, cost = 0;
+                for (Planned term : terms) {
+                    cost += selectivity * term.cost();
+                    selectivity *= term.selectivity();
+                }
+                yield new Planned(combine(terms, PersonPredicate.And::new), selectivity, cost);
+            }
+            case PersonPredicate.Or p -> {
+                List<Planned> terms = flatten(p.terms(), PersonPredicate.Or.class, sample);
+                terms.sort(Comparator.comparingDouble(t -> t.cost() / Math.max(1e-9, t.selectivity())));
+                double miss = 1, cost = 0;
+                for (Planned term : terms) {
+                    cost += miss * term.cost();
+                    miss *= 1 - term.selectivity();
+                }
+                yield new Planned(combine(terms, PersonPredicate.Or::new), 1 - miss, cost);
+            }
+            case PersonPredicate.Not p -> {
+                Planned term = plan(p.term(), sample);
+                yield new Planned(new PersonPredicate.Not(term.predicate()), 1 - term.selectivity(), term.cost());
+            }
+            default -> new Planned(predicate, selectivity(predicate, sample), leafCost(predicate));
+        };
+    }
+
+    private static List<Planned> flatten(List<PersonPredicate> terms, Class<?> kind, List<PersonRecord> sample) {
+        List<Planned> planned = new ArrayList<>();
+        for (PersonPredicate term : terms) {
+            Planned child = plan(term, sample);
+            if (kind.isInstance(child.predicate())) {
+                for (PersonPredicate grandchild : kind == PersonPredicate.And.class
+                        ? ((PersonPredicate.And) child.predicate()).terms()
+                        : ((PersonPredicate.Or) child.predicate()).terms()) {
+                    planned.add(plan(grandchild, sample));
+                }
+            } else {
+                planned.add(child);
+            }
+        }
+        return planned;
+    }
+
+    private static PersonPredicate combine(List<Planned> terms, Function<List<PersonPredicate>, PersonPredicate> node) {
+        return terms.size() == 1
+            ? terms.get(0).predicate()
+            : node.apply(terms.stream().map(Planned::predicate).toList());
+    }
+
+    private static double selectivity(PersonPredicate leaf, List<PersonRecord> sample) {
+        if (sample.isEmpty()) {
+            return switch (leaf) {
+                case PersonPredicate.AgeBetween p -> Math.max(0, Math.min(100, p.max() + 1L) - Math.max(0, p.min())) / 100.0;
+                case PersonPredicate.NameEquals p -> 0.01;
+                case PersonPredicate.EmailEquals p -> 0.0001;
+                case PersonPredicate.NameStartsWith p -> 0.1;
+                default -> 0.3;
+            };
+        }
+        int hits = 0;
+        for (PersonRecord person : sample) {
+            if (leaf.test(person)) {
+                hits++;
+            }
+        }
+        // Laplace smoothing keeps unseen matches from looking impossible
+        return (hits + 0.5) / (sample.size() + 1.0);
+    }
+
+    // Relative per-row cost: an int compare vs a String comparison
+    private static double leafCost(PersonPredicate leaf) {
+        return leaf instanceof PersonPredicate.AgeBetween ? 1.0 : 4.0;
+    }
+
+    // -- code generation ---------------------------------------------------
+
+    private static final MethodHandle AGE_BETWEEN, NAME_EQUALS, NAME_STARTS_WITH, EMAIL_EQUALS, EMAIL_ENDS_WITH, NOT;
+
+    static {
+        try {
+            MethodType stringTest = MethodType.methodType(boolean.class, String.class, PersonRecord.class);
+            AGE_BETWEEN = LOOKUP.findStatic(PersonQuery.class, "ageBetween",
+                MethodType.methodType(boolean.class, int.class, int.class, PersonRecord.class));
+            NAME_EQUALS = LOOKUP.findStatic(PersonQuery.class, "nameEquals", stringTest);
+            NAME_STARTS_WITH = LOOKUP.findStatic(PersonQuery.class, "nameStartsWith", stringTest);
+            EMAIL_EQUALS = LOOKUP.findStatic(PersonQuery.class, "emailEquals", stringTest);
+            EMAIL_ENDS_WITH = LOOKUP.findStatic(PersonQuery.class, "emailEndsWith", stringTest);
+            NOT = LOOKUP.findStatic(PersonQuery.class, "not", MethodType.methodType(boolean.class, boolean.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static boolean ageBetween(int min, int max, PersonRecord person) {
+        int age = person.age();
+        return age >= min && age <= max;
+    }
+
+    private static boolean nameEquals(String value, PersonRecord person) { return person.name().equals(value); }
+    private static boolean nameStartsWith(String prefix, PersonRecord person) { return person.name().startsWith(prefix); }
+    private static boolean emailEquals(String value, PersonRecord person) { return person.email().equals(value); }
+    private static boolean emailEndsWith(String suffix, PersonRecord person) { return person.email().endsWith(suffix); }
+    private static boolean not(boolean value) { return !value; }
+
+    static MethodHandle handle(PersonPredicate predicate) {
+        return switch (predicate) {
+            case PersonPredicate.AgeBetween p -> MethodHandles.insertArguments(AGE_BETWEEN, 0, p.min(), p.max());
+            case PersonPredicate.NameEquals p -> MethodHandles.insertArguments(NAME_EQUALS, 0, p.value());
+            case PersonPredicate.NameStartsWith p -> MethodHandles.insertArguments(NAME_STARTS_WITH, 0, p.prefix());
+            case PersonPredicate.EmailEquals p -> MethodHandles.insertArguments(EMAIL_EQUALS, 0, p.value());
+            case PersonPredicate.EmailEndsWith p -> MethodHandles.insertArguments(EMAIL_ENDS_WITH, 0, p.suffix());
+            case PersonPredicate.Not p -> MethodHandles.filterReturnValue(handle(p.term()), NOT);
+            // a && rest == a ? rest : false, built right to left
+            case PersonPredicate.And p -> chain(p.terms(), false);
+            // a || rest == a ? true : rest
+            case PersonPredicate.Or p -> chain(p.terms(), true);
+        };
+    }
+
+    private static MethodHandle chain(List<PersonPredicate> terms, boolean shortCircuitValue) {
+        MethodHandle constant = MethodHandles.dropArguments(
+            MethodHandles.constant(boolean.class, shortCircuitValue), 0, PersonRecord.class);
+        MethodHandle rest = handle(terms.get(terms.size() - 1));
+        for (int i = terms.size() - 2; i >= 0; i--) {
+            MethodHandle term = handle(terms.get(i));
+            rest = shortCircuitValue
+                ? MethodHandles.guardWithTest(term, constant, rest)
+                : MethodHandles.guardWithTest(term, rest, constant);
+        }
+        return rest.asType(TEST);
+    }
+
+    private static byte[] readTemplate() {
+        try (InputStream in = PersonQueryTemplate.class.getResourceAsStream("PersonQueryTemplate.class")) {
+            if (in == null) {
+                throw new IllegalStateException("PersonQueryTemplate.class is not readable as a resource");
+            }
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
+
+// The same three-term query as a hand-written stream pipeline (in the order a
+// person would write it) vs the compiled plan over the list and over columns.
+class PersonQueryBenchmark {
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        List<PersonRecord> people = PersonWorkloads.people(n, 5);
+        PersonTable table = PersonTable.of(people);
+
+        PersonPredicate predicate = PersonPredicate.emailEndsWith("@mail.net")
+            .and(PersonPredicate.nameStartsWith("Grace"))
+            .and(PersonPredicate.ageBetween(30, 34));
+        PersonQuery query = PersonQuery.compile(predicate, people);
+        System.out.println("Plan: " + query.plan());
+
+        long expected = people.stream().filter(predicate::test).count();
+        if (query.count(people) != expected || query.select(table).cardinality() != expected) {
+            throw new AssertionError("Compiled query disagrees with interpreter");
+        }
+        MicroBench.measure("stream filter chain", 5, 20, () -> people.stream()
+            .filter(p -> p.email().endsWith("@mail.net"))
+            .filter(p -> p.name().startsWith("Grace"))
+            .filter(p -> p.age() >= 30 && p.age() <= 34)
+            .count());
+        MicroBench.measure("compiled query over List", 5, 20, () -> query.count(people));
+        MicroBench.measure("compiled query over PersonTable", 5, 20, () -> query.select(table).cardinality());
+    }
+}
+
+// 4. MEMORY-MAPPED PARALLEL LOADER
+// Technique: FileChannel.map windows + split on line boundaries + parallel
+//            parse straight into PersonTable columns
+//
+// Two text formats, one record per line (CR LF tolerated, blank lines skipped):
+//     CSV:         John,30,john@email.com        ("..." quoting with "" escapes)
+//     JSON lines:  {"name":"John","age":30,"email":"john@email.com"}
+// The file is mapped one window at a time (windowBytes, default 64 MiB), each
+// window is cut back to its last newline and split into one chunk per worker,
+// and each chunk is parsed on its own and handed to the sink in file order
+// (the same scheme as MappedShapeLoader in java-shape-io.java). Heap use is
+// bounded by one window's worth of rows, so files larger than RAM stream.
+//
+// Ages are accumulated digit by digit from the mapped bytes. load() copies
+// plain name and email fields as UTF-8 straight into PersonTable byte buffers,
+// creating no String at all; loadRecords() decodes each field into its String
+// exactly once, through a reused scratch array. Only fields that need
+// unescaping ("" in CSV, \ in JSON) take an extra intermediate String.
+class MappedPersonLoader {
+    static final long DEFAULT_WINDOW_BYTES = 64L << 20;
+
+    enum Format { CSV, JSON_LINES }
+
+    // Throughput of one load call
+    record LoadStats(long rows, long bytes, long nanos) {
+        public double rowsPerSecond() { return rows * 1e9 / Math.max(1, nanos); }
+        public double bytesPerSecond() { return bytes * 1e9 / Math.max(1, nanos); }
+
+        @Override
+        public String toString() {
+            return String.format("%,d rows, %,d bytes in %.1f ms (%,.0f rows/s, %.1f MB/s)",
+                rows, bytes, nanos / 1e6, rowsPerSecond(), bytesPerSecond() / 1e6);
+        }
+    }
+
+    private final Format format;
+    private final long windowBytes;
+    private final ForkJoinPool pool;
+    private final int parallelism;
+
+    public MappedPersonLoader(Format format) {
+        this(format, DEFAULT_WINDOW_BYTES, ForkJoinPool.commonPool());
+    }
+
+    public MappedPersonLoader(Format format, long windowBytes, ForkJoinPool pool) {
+        if (windowBytes < 1 || windowBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Window size must be in [1, Integer.MAX_VALUE]");
+        }
+        this.format = Objects.requireNonNull(format);
+        this.windowBytes = windowBytes;
+        this.pool = Objects.requireNonNull(pool);
+        this.parallelism = pool.getParallelism();
+    }
+
+    // Streams parsed chunks to sink in file order, as columns
+    public LoadStats load(Path file, Consumer<PersonTable> sink) throws IOException {
+        return load(file, false, parser -> parser.table, sink);
+    }
+
+    // Streams parsed chunks to sink in file order, as records
+    public LoadStats loadRecords(Path file, Consumer<List<PersonRecord>> sink) throws IOException {
+        return load(file, true, parser -> parser.records, sink);
+    }
+
+    // Convenience: whole file as records (not bounded; stream for huge files)
+    public List<PersonRecord> loadRecords(Path file) throws IOException {
+        List<PersonRecord> people = new ArrayList<>();
+        loadRecords(file, people::addAll);
+        return people;
+    }
+
+    private <T> LoadStats load(Path file, boolean records, Function<ChunkParser, T> result, Consumer<T> sink)
+            throws IOException {
+        long start = System.nanoTime();
+        long rows = 0;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            long position = 0;
+            while (position < fileSize) {
+                long length = Math.min(windowBytes, fileSize - position);
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                int end = (int) length;
+                if (position + length < fileSize) {
+                    end = lastNewline(window, end) + 1;
+                    if (end == 0) {
+                        throw new IOException("Line at offset " + position + " is longer than the "
+                            + windowBytes + "-byte window");
+                    }
+                }
+                for (ChunkParser chunk : parseWindow(window, end, position, records)) {
+                    rows += chunk.rows();
+                    sink.accept(result.apply(chunk));
+                }
+                position += end;
+            }
+            return new LoadStats(rows, fileSize, System.nanoTime() - start);
+        }
+    }
+
+    private List<ChunkParser> parseWindow(ByteBuffer window, int end, long windowOffset, boolean records)
+            throws IOException {
+        // Chunk boundaries: roughly equal sizes, each moved forward to the next line start
+        int chunks = Math.max(1, Math.min(parallelism, end / 4096));
+        int[] bounds = new int[chunks + 1];
+        bounds[chunks] = end;
+        for (int i = 1; i < chunks; i++) {
+            int cut = Math.max(bounds[i - 1], (int) ((long) end * i / chunks));
+            while (cut < end && window.get(cut - 1) != '\n') {
+                cut++;
+            }
+            bounds[i] = cut;
+        }
+
+        List<ForkJoinTask<ChunkParser>> tasks = new ArrayList<>(chunks);
+        for (int i = 0; i < chunks; i++) {
+            int from = bounds[i], to = bounds[i + 1];
+            tasks.add(pool.submit(() -> new ChunkParser(window, windowOffset, format, records).parse(from, to)));
+        }
+        List<ChunkParser> parsed = new ArrayList<>(chunks);
+        for (ForkJoinTask<ChunkParser> task : tasks) {
+            try {
+                parsed.add(task.join());
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+        return parsed;
+    }
+
+    private static int lastNewline(ByteBuffer window, int end) {
+        for (int i = end - 1; i >= 0; i--) {
+            if (window.get(i) == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Parses one chunk with absolute gets, so chunks can share the mapped buffer
+    private static final class ChunkParser {
+        private static final byte[] NAME = "name".getBytes(StandardCharsets.US_ASCII);
+        private static final byte[] AGE = "age".getBytes(StandardCharsets.US_ASCII);
+        private static final byte[] EMAIL = "email".getBytes(StandardCharsets.US_ASCII);
+
+        private final ByteBuffer buffer;
+        private final long windowOffset;
+        private final Format format;
+        // Exactly one of these is used
+        final PersonTable table;
+        final List<PersonRecord> records;
+        private byte[] scratch = new byte[64];
+        private int pos, lineStart;
+
+        // Current line's fields: raw byte ranges, or a decoded String when escaped
+        private int nameFrom, nameLength, emailFrom, emailLength, age;
+        private String nameText, emailText;
+
+        ChunkParser(ByteBuffer buffer, long windowOffset, Format format, boolean asRecords) {
+            this.buffer = buffer;
+            this.windowOffset = windowOffset;
+            this.format = format;
+            this.table = asRecords ? null : new PersonTable(1024);
+            this.records = asRecords ? new ArrayList<>(1024) : null;
+        }
+
+        int rows() {
+            return table != null ? table.size() : records.size();
+        }
+
+        ChunkParser parse(int from, int to) {
+            pos = from;
+            while (pos < to) {
+                int lineEnd = pos;
+                while (lineEnd < to && buffer.get(lineEnd) != '\n') {
+                    lineEnd++;
+                }
+                int contentEnd = lineEnd > pos && buffer.get(lineEnd - 1) == '\r' ? lineEnd - 1 : lineEnd;
+                if (contentEnd > pos) {
+                    lineStart = pos;
+                    nameText = emailText = null;
+                    if (format == Format.CSV) {
+                        parseCsv(contentEnd);
+                    } else {
+                        parseJson(contentEnd);
+                    }
+                    emit();
+                }
+                pos = lineEnd + 1;
+            }
+            return this;
+        }
+
+        private void emit() {
+            if (age < 0) {
+                throw malformed(lineStart, "negative age");
+            }
+            if (table != null && nameText == null && emailText == null) {
+                table.addUtf8(buffer, nameFrom, nameLength, age, emailFrom, emailLength);
+                return;
+            }
+            String name = nameText != null ? nameText : utf8(nameFrom, nameLength);
+            String email = emailText != null ? emailText : utf8(emailFrom, emailLength);
+            if (table != null) {
+                table.add(name, age, email);
+            } else {
+                records.add(new PersonRecord(name, age, email));
+            }
+        }
+
+        // -- CSV: name,age,email -------------------------------------------
+
+        private void parseCsv(int end) {
+            csvField(end);
+            nameFrom = fieldFrom; nameLength = fieldLength; nameText = fieldText;
+            expect(',', end);
+            age = integer(end);
+            expect(',', end);
+            csvField(end);
+            emailFrom = fieldFrom; emailLength = fieldLength; emailText = fieldText;
+            if (pos < end) {
+                throw malformed(lineStart, "trailing fields");
+            }
+        }
+
+        private int fieldFrom, fieldLength;
+        private String fieldText;
+
+        private void csvField(int end) {
+            fieldText = null;
+            if (pos < end && buffer.get(pos) == '"') {
+                int start = ++pos;
+                boolean escaped = false;
+                while (true) {
+                    if (pos >= end) {
+                        throw malformed(lineStart, "unterminated quote");
+                    }
+                    if (buffer.get(pos) == '"') {
+                        if (pos + 1 < end && buffer.get(pos + 1) == '"') {
+                            escaped = true;
+                            pos += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    pos++;
+                }
+                fieldFrom = start;
+                fieldLength = pos - start;
+                pos++;
+                if (escaped) {
+                    fieldText = utf8(fieldFrom, fieldLength).replace("\"\"", "\"");
+                }
+            } else {
+                fieldFrom = pos;
+                while (pos < end && buffer.get(pos) != ',') {
+                    pos++;
+                }
+                fieldLength = pos - fieldFrom;
+            }
+        }
+
+        // -- JSON lines: one flat object per line --------------------------
+
+        private void parseJson(int end) {
+            boolean seenName = false, seenAge = false, seenEmail = false;
+            skipSpaces(end);
+            expect('{', end);
+            skipSpaces(end);
+            if (pos < end && buffer.get(pos) == '}') {
+                throw malformed(lineStart, "missing fields");
+            }
+            while (true) {
+                skipSpaces(end);
+                jsonString(end);
+                int keyFrom = fieldFrom, keyLength = fieldLength;
+                skipSpaces(end);
+                expect(':', end);
+                skipSpaces(end);
+                if (is(NAME, keyFrom, keyLength)) {
+                    jsonString(end);
+                    nameFrom = fieldFrom; nameLength = fieldLength; nameText = fieldText;
+                    seenName = true;
+                } else if (is(EMAIL, keyFrom, keyLength)) {
+                    jsonString(end);
+                    emailFrom = fieldFrom; emailLength = fieldLength; emailText = fieldText;
+                    seenEmail = true;
+                } else if (is(AGE, keyFrom, keyLength)) {
+                    age = integer(end);
+                    seenAge = true;
+                } else {
+                    skipScalar(end);
+                }
+                skipSpaces(end);
+                if (pos < end && buffer.get(pos) == ',') {
+                    pos++;
+                    continue;
+                }
+                expect('}', end);
+                break;
+            }
+            skipSpaces(end);
+            if (pos < end) {
+                throw malformed(lineStart, "trailing characters");
+            }
+            if (!seenName || !seenAge || !seenEmail) {
+                throw malformed(lineStart, "missing fields");
+            }
+        }
+
+        private void jsonString(int end) {
+            expect('"', end);
+            fieldText = null;
+            int start = pos;
+            boolean escaped = false;
+            while (pos < end && buffer.get(pos) != '"') {
+                if (buffer.get(pos) == '\\') {
+                    escaped = true;
+                    pos++;
+                }
+                pos++;
+            }
+            if (pos >= end) {
+                throw malformed(lineStart, "unterminated string");
+            }
+            fieldFrom = start;
+            fieldLength = pos - start;
+            pos++;
+            if (escaped) {
+                fieldText = unescapeJson(utf8(fieldFrom, fieldLength));
+            }
+        }
+
+        // Numbers, true/false/null and strings of fields this loader ignores
+        private void skipScalar(int end) {
+            if (pos < end && buffer.get(pos) == '"') {
+                jsonString(end);
+                return;
+            }
+            int start = pos;
+            while (pos < end && buffer.get(pos) != ',' && buffer.get(pos) != '}') {
+                byte b = buffer.get(pos);
+                if (b == '{' || b == '[') {
+                    throw malformed(lineStart, "nested values are not supported");
+                }
+                pos++;
+            }
+            if (pos == start) {
+                throw malformed(lineStart, "missing value");
+            }
+        }
+
+        private String unescapeJson(String text) {
+            StringBuilder sb = new StringBuilder(text.length());
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (c != '\\') {
+                    sb.append(c);
+                    continue;
+                }
+                if (++i == text.length()) {
+                    throw malformed(lineStart, "bad escape");
+                }
+                switch (text.charAt(i)) {
+                    case '"' -> sb.append('"');
+                    case '\\' -> sb.append('\\');
+                    case '/' -> sb.append('/');
+                    case 'b' -> sb.append('\b');
+                    case 'f' -> sb.append('\f');
+                    case 'n' -> sb.append('\n');
+                    case 'r' -> sb.append('\r');
+                    case 't' -> sb.append('\t');
+                    case 'u' -> {
+                        if (i + 4 >= text.length()) {
+                            throw malformed(lineStart, "bad escape");
+                        }
+                        try {
+                            sb.append((char) Integer.parseInt(text, i + 1, i + 5, 16));
+                        } catch (NumberFormatException e) {
+                            throw malformed(lineStart, "bad escape");
+                        }
+                        i += 4;
+                    }
+                    default -> throw malformed(lineStart, "bad escape");
+                }
+            }
+            return sb.toString();
+        }
+
+        // -- shared --------------------------------------------------------
+
+        // Optional sign and 1-10 digits, accumulated in a long: no String, no parseInt
+        private int integer(int end) {
+            boolean negative = false;
+            if (pos < end && buffer.get(pos) == '-') {
+                negative = true;
+                pos++;
+            }
+            int start = pos;
+            long value = 0;
+            while (pos < end) {
+                int digit = buffer.get(pos) - '0';
+                if (digit < 0 || digit > 9) {
+                    break;
+                }
+                value = value * 10 + digit;
+                pos++;
+                if (pos - start > 10) {
+                    throw malformed(lineStart, "age out of range");
+                }
+            }
+            if (pos == start) {
+                throw malformed(lineStart, "bad age");
+            }
+            value = negative ? -value : value;
+            if (value != (int) value) {
+                throw malformed(lineStart, "age out of range");
+            }
+            return (int) value;
+        }
+
+        private void expect(char c, int end) {
+            if (pos >= end || buffer.get(pos) != c) {
+                throw malformed(lineStart, "expected '" + c + "'");
+            }
+            pos++;
+        }
+
+        private void skipSpaces(int end) {
+            while (pos < end && (buffer.get(pos) == ' ' || buffer.get(pos) == '\t')) {
+                pos++;
+            }
+        }
+
+        private boolean is(byte[] key, int from, int length) {
+            if (key.length != length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (key[i] != buffer.get(from + i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // One copy out of the mapped buffer into a reused array, one into the String
+        private String utf8(int from, int length) {
+            if (length > scratch.length) {
+                scratch = new byte[Math.max(length, scratch.length * 2)];
+            }
+            buffer.get(from, scratch, 0, length);
+            return new String(scratch, 0, length, StandardCharsets.UTF_8);
+        }
+
+        private UncheckedIOException malformed(int at, String reason) {
+            return new UncheckedIOException(new IOException(
+                "Malformed person line near byte " + (windowOffset + at) + ": " + reason));
+        }
+    }
+}
+
+// Mapped loader vs BufferedReader + String.split + Integer.parseInt, both
+// producing a List<PersonRecord>, plus the loader's own rows/s and bytes/s.
+class MappedPersonLoaderBenchmark {
+    public static void main(String[] args) throws IOException {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        Path csv = Files.createTempFile("people", ".csv");
+        Path json = Files.createTempFile("people", ".jsonl");
+        try {
+            try (BufferedWriter c = Files.newBufferedWriter(csv); BufferedWriter j = Files.newBufferedWriter(json)) {
+                for (PersonRecord p : PersonWorkloads.people(n, 11)) {
+                    c.write(p.name() + "," + p.age() + "," + p.email() + "\n");
+                    j.write("{\"name\":\"" + p.name() + "\",\"age\":" + p.age() + ",\"email\":\"" + p.email() + "\"}\n");
+                }
+            }
+            MappedPersonLoader csvLoader = new MappedPersonLoader(MappedPersonLoader.Format.CSV);
+            MappedPersonLoader jsonLoader = new MappedPersonLoader(MappedPersonLoader.Format.JSON_LINES);
+            MicroBench.measure("BufferedReader + split + parseInt", 2, 5, () -> {
+                List<PersonRecord> people = new ArrayList<>();
+                try (BufferedReader reader = Files.newBufferedReader(csv)) {
+                    for (String line; (line = reader.readLine()) != null; ) {
+                        String[] fields = line.split(",");
+                        people.add(new PersonRecord(fields[0], Integer.parseInt(fields[1]), fields[2]));
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return people.size();
+            });
+            MicroBench.measure("MappedPersonLoader CSV -> records", 2, 5, () -> {
+                try {
+                    return csvLoader.loadRecords(csv).size();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            for (int i = 0; i < 3; i++) {
+                csvLoader.load(csv, chunk -> {});
+            }
+            System.out.println("CSV into PersonTable:  " + csvLoader.load(csv, chunk -> {}));
+            System.out.println("JSON into PersonTable: " + jsonLoader.load(json, chunk -> {}));
+            System.out.println("CSV as records:        " + csvLoader.loadRecords(csv, chunk -> {}));
+        } finally {
+            Files.deleteIfExists(csv);
+            Files.deleteIfExists(json);
+        }
+    }
+}
+
+// 5. EXCEPTION-FREE BULK CONSTRUCTION
+// Technique: validate up front, record rejects as (row, reason code) in
+//            primitive arrays, construct only rows that cannot throw
+//
+// new PersonRecord(...) with a negative age throws IllegalArgumentException,
+// and filling in its stack trace costs far more than building a record. On
+// dirty input, try/catch per row makes the bad rows dominate the run time.
+// build() applies the compact constructor's rules itself (reasonFor), so the
+// constructor is only reached with rows it accepts and the hot path never
+// throws. Rejected rows cost one int and one byte each in the result.
+// Keep reasonFor in step with the PersonRecord compact constructor.
+final class PersonBulkBuilder {
+    enum Reason { NEGATIVE_AGE }
+
+    private static final Reason[] REASONS = Reason.values();
+    private static final byte VALID = -1;
+
+    private PersonBulkBuilder() {
+        throw new AssertionError("Utility class cannot be instantiated");
+    }
+
+    // Valid records in input order, plus each rejected input row and why
+    static final class Result {
+        private final List<PersonRecord> valid;
+        private final int[] rejectedRows;
+        private final byte[] reasons;
+        private final int rejectedCount;
+
+        private Result(List<PersonRecord> valid, int[] rejectedRows, byte[] reasons, int rejectedCount) {
+            this.valid = valid;
+            this.rejectedRows = rejectedRows;
+            this.reasons = reasons;
+            this.rejectedCount = rejectedCount;
+        }
+
+        public List<PersonRecord> valid() { return valid; }
+        public int rejectedCount() { return rejectedCount; }
+
+        public int rejectedRow(int index) {
+            Objects.checkIndex(index, rejectedCount);
+            return rejectedRows[index];
+        }
+
+        public Reason reason(int index) {
+            Objects.checkIndex(index, rejectedCount);
+            return REASONS[reasons[index]];
+        }
+
+        public int[] rejectedRows() {
+            return Arrays.copyOf(rejectedRows, rejectedCount);
+        }
+
+        @Override
+        public String toString() {
+            return valid.size() + " valid, " + rejectedCount + " rejected";
+        }
+    }
+
+    // Reason code for one row, or VALID; mirrors the PersonRecord compact constructor
+    static byte reasonFor(String name, int age, String email) {
+        return age < 0 ? (byte) Reason.NEGATIVE_AGE.ordinal() : VALID;
+    }
+
+    public static Result build(String[] names, int[] ages, String[] emails) {
+        if (names.length != ages.length || ages.length != emails.length) {
+            throw new IllegalArgumentException("Column lengths differ: "
+                + names.length + ", " + ages.length + ", " + emails.length);
+        }
+        return build(ages.length, row -> names[row], row -> ages[row], row -> emails[row]);
+    }
+
+    public static Result build(int rows, IntFunction<String> names, IntUnaryOperator ages, IntFunction<String> emails) {
+        List<PersonRecord> valid = new ArrayList<>(rows);
+        int[] rejectedRows = new int[16];
+        byte[] reasons = new byte[16];
+        int rejected = 0;
+        for (int row = 0; row < rows; row++) {
+            String name = names.apply(row);
+            int age = ages.applyAsInt(row);
+            String email = emails.apply(row);
+            byte reason = reasonFor(name, age, email);
+            if (reason == VALID) {
+                valid.add(new PersonRecord(name, age, email));
+            } else {
+                if (rejected == rejectedRows.length) {
+                    rejectedRows = Arrays.copyOf(rejectedRows, rejected * 2);
+                    reasons = Arrays.copyOf(reasons, rejected * 2);
+                }
+                rejectedRows[rejected] = row;
+                reasons[rejected++] = reason;
+            }
+        }
+        return new Result(valid, rejectedRows, reasons, rejected);
+    }
+}
+
+// try/catch per row vs up-front validation, on clean input and with 10% bad rows
+class PersonBulkBuilderBenchmark {
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        List<PersonRecord> people = PersonWorkloads.people(n, 13);
+        String[] names = new String[n], emails = new String[n];
+        int[] clean = new int[n];
+        for (int i = 0; i < n; i++) {
+            names[i] = people.get(i).name();
+            emails[i] = people.get(i).email();
+            clean[i] = people.get(i).age();
+        }
+        int[] dirty = clean.clone();
+        for (int i = 0; i < n; i += 10) {
+            dirty[i] = -1;
+        }
+
+        for (int[] ages : List.of(clean, dirty)) {
+            String label = ages == clean ? " (clean)" : " (10% bad)";
+            MicroBench.measure("try/catch per row" + label, 3, 10, () -> {
+                List<PersonRecord> valid = new ArrayList<>(n);
+                for (int i = 0; i < n; i++) {
+                    try {
+                        valid.add(new PersonRecord(names[i], ages[i], emails[i]));
+                    } catch (IllegalArgumentException e) {
+                        // rejected
+                    }
+                }
+                return valid.size();
+            });
+            MicroBench.measure("PersonBulkBuilder.build" + label, 3, 10,
+                () -> PersonBulkBuilder.build(names, ages, emails).valid().size());
+        }
+    }
+}
+
+// 6. SECONDARY INDEXES
+// Technique: open-addressing hash over int row ids (email) + per-age buckets
+//            with a row -> position array (age), both updated in place
+//
+// PersonStore is a PersonTable plus a deleted-row bitmap and two indexes.
+// Neither index stores keys: the email index is an int[] of row ids whose
+// emails live in the table's byte buffer, and probes compare those bytes
+// directly. Linear probing with backward-shift deletion needs no tombstones,
+// so lookups never slow down after many deletes. The age index keeps one
+// growable int[] of rows per distinct age in a TreeMap (ages are few); a
+// delete only bumps a per-bucket dead count (the deleted bitmap already
+// knows the row is gone) and a bucket is compacted once half of it is dead,
+// so deletes are amortized O(1) and a range query only visits the buckets in
+// range.
+// Overhead per row: email 4 / load factor (5.3-10.7) bytes, age 4 bytes plus
+// up to 50% growth slack, deleted bitmap 1 bit; indexBytesPerRow() reports the
+// actual figure.
+// Emails are a unique key: insert rejects an email that is already live.
+class PersonStore {
+    private final PersonTable table = new PersonTable();
+    private final BitSet deleted = new BitSet();
+    private final EmailHashIndex emails = new EmailHashIndex(table);
+    private final AgeIndex ages = new AgeIndex(deleted::get);
+    private int live;
+
+    public int insert(PersonRecord person) {
+        if (rowOfEmail(person.email()) >= 0) {
+            throw new IllegalArgumentException("Duplicate email: " + person.email());
+        }
+        return insertUnchecked(person);
+    }
+
+    // For callers that have just checked the email themselves
+    int insertUnchecked(PersonRecord person) {
+        int row = table.add(person);
+        emails.insert(row);
+        ages.insert(row, person.age());
+        live++;
+        return row;
+    }
+
+    // False if row was already deleted; row ids are never reused
+    public boolean delete(int row) {
+        Objects.checkIndex(row, table.size());
+        if (deleted.get(row)) {
+            return false;
+        }
+        deleted.set(row);
+        emails.remove(row);
+        ages.remove(table.age(row));
+        live--;
+        return true;
+    }
+
+    public boolean deleteByEmail(String email) {
+        int row = rowOfEmail(email);
+        return row >= 0 && delete(row);
+    }
+
+    public int size() { return live; }
+
+    public boolean isLive(int row) {
+        return row >= 0 && row < table.size() && !deleted.get(row);
+    }
+
+    public PersonRecord get(int row) {
+        if (!isLive(row)) {
+            throw new NoSuchElementException("No live row " + row);
+        }
+        return table.get(row);
+    }
+
+    // Row id of the live row with this email, or -1
+    public int rowOfEmail(String email) {
+        return emails.find(email.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Emails of the live rows, in row order
+    void forEachLiveEmail(Consumer<String> action) {
+        for (int row = deleted.nextClearBit(0); row < table.size(); row = deleted.nextClearBit(row + 1)) {
+            action.accept(table.email(row));
+        }
+    }
+
+    public Optional<PersonRecord> findByEmail(String email) {
+        int row = rowOfEmail(email);
+        return row < 0 ? Optional.empty() : Optional.of(table.get(row));
+    }
+
+    // Live rows with age in range, as a bitmap over all row ids
+    public RowSelection ageBetween(int minInclusive, int maxInclusive) {
+        RowSelection selection = new RowSelection(table.size());
+        ages.forEachBetween(minInclusive, maxInclusive, selection::set);
+        return selection;
+    }
+
+    public int countAgeBetween(int minInclusive, int maxInclusive) {
+        return ages.countBetween(minInclusive, maxInclusive);
+    }
+
+    public List<PersonRecord> materialize(RowSelection selection) {
+        return table.materialize(selection);
+    }
+
+    public long indexBytes() {
+        return emails.bytes() + ages.bytes() + deleted.size() / 8;
+    }
+
+    public double indexBytesPerRow() {
+        return live == 0 ? 0 : (double) indexBytes() / live;
+    }
+
+    // Open addressing, linear probing; slots hold row ids, EMPTY is -1
+    static final class EmailHashIndex {
+        private static final int EMPTY = -1;
+        private static final double MAX_LOAD = 0.75;
+
+        private final PersonTable table;
+        private int[] slots = newSlots(16);
+        private int mask = 15;
+        private int size;
+
+        EmailHashIndex(PersonTable table) {
+            this.table = table;
+        }
+
+        private static int[] newSlots(int capacity) {
+            int[] slots = new int[capacity];
+            Arrays.fill(slots, EMPTY);
+            return slots;
+        }
+
+        int find(byte[] email) {
+            for (int i = PersonTable.hashUtf8(email, 0, email.length) & mask; ; i = (i + 1) & mask) {
+                int row = slots[i];
+                if (row == EMPTY || table.emailMatches(row, email)) {
+                    return row;
+                }
+            }
+        }
+
+        void insert(int row) {
+            if (size + 1 > MAX_LOAD * slots.length) {
+                resize(slots.length * 2);
+            }
+            place(row);
+            size++;
+        }
+
+        private void place(int row) {
+            int i = table.emailHash(row) & mask;
+            while (slots[i] != EMPTY) {
+                i = (i + 1) & mask;
+            }
+            slots[i] = row;
+        }
+
+        void remove(int row) {
+            int i = table.emailHash(row) & mask;
+            while (slots[i] != row) {
+                i = (i + 1) & mask;
+            }
+            // Backward-shift: pull later entries of the probe run into the hole
+            // unless their home slot lies cyclically after the hole
+            for (int j = (i + 1) & mask; slots[j] != EMPTY; j = (j + 1) & mask) {
+                int home = table.emailHash(slots[j]) & mask;
+                if (((j - home) & mask) >= ((j - i) & mask)) {
+                    slots[i] = slots[j];
+                    i = j;
+                }
+            }
+            slots[i] = EMPTY;
+            size--;
+        }
+
+        private void resize(int capacity) {
+            int[] old = slots;
+            slots = newSlots(capacity);
+            mask = capacity - 1;
+            for (int row : old) {
+                if (row != EMPTY) {
+                    place(row);
+                }
+            }
+        }
+
+        long bytes() {
+            return 4L * slots.length;
+        }
+    }
+
+    // age -> bucket of rows. Deletes are lazy: the store's deleted bitmap is
+    // the source of truth, and a bucket is compacted once half of it is dead.
+    static final class AgeIndex {
+        private final TreeMap<Integer, Bucket> buckets = new TreeMap<>();
+        private final IntPredicate deleted;
+
+        private static final class Bucket {
+            int[] rows = new int[8];
+            int size, dead;
+        }
+
+        AgeIndex(IntPredicate deleted) {
+            this.deleted = deleted;
+        }
+
+        void insert(int row, int age) {
+            Bucket bucket = buckets.computeIfAbsent(age, key -> new Bucket());
+            if (bucket.size == bucket.rows.length) {
+                // 1.5x growth keeps the slack per row low
+                bucket.rows = Arrays.copyOf(bucket.rows, bucket.size + (bucket.size >> 1));
+            }
+            bucket.rows[bucket.size++] = row;
+        }
+
+        // Called after row is marked deleted
+        void remove(int age) {
+            Bucket bucket = buckets.get(age);
+            if (++bucket.dead * 2 <= bucket.size) {
+                return;
+            }
+            int kept = 0;
+            for (int i = 0; i < bucket.size; i++) {
+                if (!deleted.test(bucket.rows[i])) {
+                    bucket.rows[kept++] = bucket.rows[i];
+                }
+            }
+            if (kept == 0) {
+                buckets.remove(age);
+                return;
+            }
+            bucket.size = kept;
+            bucket.dead = 0;
+            bucket.rows = Arrays.copyOf(bucket.rows, Math.max(8, kept + (kept >> 1)));
+        }
+
+        void forEachBetween(int minInclusive, int maxInclusive, IntConsumer action) {
+            if (minInclusive > maxInclusive) {
+                return;
+            }
+            for (Bucket bucket : buckets.subMap(minInclusive, true, maxInclusive, true).values()) {
+                for (int i = 0; i < bucket.size; i++) {
+                    int row = bucket.rows[i];
+                    if (bucket.dead == 0 || !deleted.test(row)) {
+                        action.accept(row);
+                    }
+                }
+            }
+        }
+
+        int countBetween(int minInclusive, int maxInclusive) {
+            if (minInclusive > maxInclusive) {
+                return 0;
+            }
+            int count = 0;
+            for (Bucket bucket : buckets.subMap(minInclusive, true, maxInclusive, true).values()) {
+                count += bucket.size - bucket.dead;
+            }
+            return count;
+        }
+
+        long bytes() {
+            long bytes = 0;
+            for (Bucket bucket : buckets.values()) {
+                bytes += 4L * bucket.rows.length;
+            }
+            return bytes;
+        }
+    }
+}
+
+// Linear scans over a List vs indexed lookups, plus index overhead per row
+class PersonStoreBenchmark {
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        List<PersonRecord> people = PersonWorkloads.people(n, 19);
+        PersonStore store = new PersonStore();
+        people.forEach(store::insert);
+        for (int row = 0; row < n; row += 10) {
+            store.delete(row);
+        }
+        System.out.printf("Index overhead: %,d bytes, %.1f bytes/row over %,d live rows%n",
+            store.indexBytes(), store.indexBytesPerRow(), store.size());
+
+        String[] probes = new String[1000];
+        for (int i = 0; i < probes.length; i++) {
+            probes[i] = people.get((int) ((long) i * 7919 % n)).email();
+        }
+        MicroBench.measure("List scan by email (x10)", 2, 5, () -> {
+            long found = 0;
+            for (int i = 0; i < 10; i++) {
+                String email = probes[i];
+                found += people.stream().filter(p -> p.email().equals(email)).count();
+            }
+            return found;
+        });
+        MicroBench.measure("PersonStore.rowOfEmail (x1000)", 5, 20, () -> {
+            long found = 0;
+            for (String email : probes) {
+                found += store.rowOfEmail(email) >= 0 ? 1 : 0;
+            }
+            return found;
+        });
+        MicroBench.measure("List scan age 30..32", 5, 20,
+            () -> people.stream().filter(p -> p.age() >= 30 && p.age() <= 32).count());
+        MicroBench.measure("PersonStore.ageBetween(30, 32)", 5, 20,
+            () -> store.ageBetween(30, 32).cardinality());
+    }
+}
+
+// 7. BLOOM-FILTER-GUARDED DEDUPLICATION
+// Technique: scalable Bloom filter (Almeida et al.): a chain of plain Bloom
+//            filters, each twice as large and twice as strict as the last
+//
+// A plain Bloom filter must be sized for its final element count. The scalable
+// variant starts with one layer sized for initialCapacity at error rate
+// p * (1 - r) and, whenever the newest layer is full, adds a layer with twice
+// the capacity and r times the error rate (r = TIGHTENING = 0.5). The error
+// rates form a geometric series, so the overall false-positive rate stays
+// below p however many layers are added. A lookup checks every layer; an add
+// only touches the newest one.
+//
+// Each layer needs k bit positions per key. They come from one 64-bit hash of
+// the key's chars via double hashing (h1 + i * h2), so the key is hashed once
+// per lookup, not once per layer or per bit, and is never encoded to bytes.
+// Layer sizes are rounded up to a power of two so a bit index is a mask, not
+// a division; k is then chosen for the actual size.
+class ScalableBloomFilter {
+    static final double TIGHTENING = 0.5;
+    static final int GROWTH = 2;
+
+    private final double falsePositiveRate;
+    private final List<Layer> layers = new ArrayList<>();
+    private long count;
+
+    public ScalableBloomFilter(int initialCapacity, double falsePositiveRate) {
+        if (initialCapacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        if (!(falsePositiveRate > 0 && falsePositiveRate < 1)) {
+            throw new IllegalArgumentException("False-positive rate must be in (0, 1)");
+        }
+        this.falsePositiveRate = falsePositiveRate;
+        layers.add(new Layer(initialCapacity, falsePositiveRate * (1 - TIGHTENING)));
+    }
+
+    public void add(CharSequence key) {
+        Layer newest = layers.get(layers.size() - 1);
+        if (newest.count == newest.capacity) {
+            newest = new Layer(newest.capacity * GROWTH, newest.falsePositiveRate * TIGHTENING);
+            layers.add(newest);
+        }
+        newest.add(hash64(key));
+        count++;
+    }
+
+    public boolean mightContain(CharSequence key) {
+        long hash = hash64(key);
+        // Newest first: recent keys are the likeliest repeats
+        for (int i = layers.size() - 1; i >= 0; i--) {
+            if (layers.get(i).mightContain(hash)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public long count() { return count; }
+    public int layers() { return layers.size(); }
+    public double targetFalsePositiveRate() { return falsePositiveRate; }
+
+    // Compounded bound for the layers that exist now: 1 - prod(1 - p_i)
+    public double expectedFalsePositiveRate() {
+        double miss = 1;
+        for (Layer layer : layers) {
+            miss *= 1 - layer.falsePositiveRate;
+        }
+        return 1 - miss;
+    }
+
+    public long bytes() {
+        long bytes = 0;
+        for (Layer layer : layers) {
+            bytes += 8L * layer.bits.length;
+        }
+        return bytes;
+    }
+
+    // FNV-1a style over the chars, finished with the murmur3 fmix64
+    static long hash64(CharSequence key) {
+        long h = 0x9E3779B97F4A7C15L ^ key.length();
+        for (int i = 0, n = key.length(); i < n; i++) {
+            h = (h ^ key.charAt(i)) * 0x100000001B3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        return h ^ (h >>> 33);
+    }
+
+    // One classic Bloom filter: m >= -n ln p / ln(2)^2 bits, k = (m / n) ln 2 probes
+    private static final class Layer {
+        static final int MAX_BITS_LOG2 = 36;
+
+        final long capacity;
+        final double falsePositiveRate;
+        final long[] bits;
+        final long mask;
+        final int hashes;
+        long count;
+
+        Layer(long capacity, double falsePositiveRate) {
+            this.capacity = capacity;
+            this.falsePositiveRate = falsePositiveRate;
+            double m = Math.max(64, -capacity * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+            int log2 = Math.min(MAX_BITS_LOG2, 64 - Long.numberOfLeadingZeros((long) Math.ceil(m) - 1));
+            this.bits = new long[1 << (log2 - 6)];
+            this.mask = (1L << log2) - 1;
+            this.hashes = Math.max(1, (int) Math.round((double) (mask + 1) / capacity * Math.log(2)));
+        }
+
+        void add(long hash) {
+            long h2 = hash >>> 32 | 1;
+            for (int i = 0; i < hashes; i++) {
+                long bit = (hash + i * h2) & mask;
+                bits[(int) (bit >>> 6)] |= 1L << bit;
+            }
+            count++;
+        }
+
+        boolean mightContain(long hash) {
+            long h2 = hash >>> 32 | 1;
+            for (int i = 0; i < hashes; i++) {
+                long bit = (hash + i * h2) & mask;
+                if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
+
+// Ingest front end: a row is checked against the exact store only when the
+// filter says its email may have been seen. The exact check and the insert
+// are pluggable, since the store behind them is usually the expensive part:
+// the filter only pays off when an exact check costs more than its own few
+// cache misses (against PersonStore's in-memory hash index it is a net loss,
+// see the benchmark).
+// The filter must cover every email already in the store, or a duplicate of
+// one of them would skip the exact check; into() seeds it from the store's
+// live rows.
+// Deleting from the store does not clear the filter, so a re-inserted email
+// costs one exact check (counted as a false positive) and is still accepted.
+class DedupingPersonIngest {
+    // Counters since construction
+    record Metrics(long offered, long filterHits, long falsePositives, long duplicates) {
+        // Share of rows that needed the exact check
+        public double filterHitRate() {
+            return offered == 0 ? 0 : (double) filterHits / offered;
+        }
+
+        // Share of new emails the filter wrongly flagged
+        public double falsePositiveRate() {
+            long fresh = offered - duplicates;
+            return fresh == 0 ? 0 : (double) falsePositives / fresh;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%,d offered, %,d filter hits (%.3f%%), %,d false positives (%.4f%%), %,d duplicates",
+                offered, filterHits, 100 * filterHitRate(), falsePositives, 100 * falsePositiveRate(), duplicates);
+        }
+    }
+
+    private final ScalableBloomFilter filter;
+    private final Predicate<String> emailExists;
+    private final Consumer<PersonRecord> insert;
+    private long offered, filterHits, falsePositives, duplicates;
+
+    public DedupingPersonIngest(int initialCapacity, double falsePositiveRate,
+                                Predicate<String> emailExists, Consumer<PersonRecord> insert) {
+        this.filter = new ScalableBloomFilter(initialCapacity, falsePositiveRate);
+        this.emailExists = Objects.requireNonNull(emailExists);
+        this.insert = Objects.requireNonNull(insert);
+    }
+
+    public static DedupingPersonIngest into(PersonStore store, int initialCapacity, double falsePositiveRate) {
+        DedupingPersonIngest ingest = new DedupingPersonIngest(Math.max(initialCapacity, store.size()),
+            falsePositiveRate, email -> store.rowOfEmail(email) >= 0, store::insertUnchecked);
+        store.forEachLiveEmail(ingest.filter::add);
+        return ingest;
+    }
+
+    // Inserts person unless its email already exists; false for a duplicate
+    public boolean offer(PersonRecord person) {
+        offered++;
+        String email = person.email();
+        if (filter.mightContain(email)) {
+            filterHits++;
+            if (emailExists.test(email)) {
+                duplicates++;
+                return false;
+            }
+            falsePositives++;
+        }
+        filter.add(email);
+        insert.accept(person);
+        return true;
+    }
+
+    public Metrics metrics() {
+        return new Metrics(offered, filterHits, falsePositives, duplicates);
+    }
+
+    public ScalableBloomFilter filter() { return filter; }
+}
+
+// Exact check on every row vs Bloom-guarded check, 5% duplicate emails, against
+// PersonStore's in-memory hash index and against an ordered set of Strings
+// standing in for a slower full store
+class DedupingPersonIngestBenchmark {
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        List<PersonRecord> rows = new ArrayList<>(PersonWorkloads.people(n, 23));
+        Random random = new Random(23);
+        for (int i = 0; i < n / 20; i++) {
+            rows.set(n / 2 + random.nextInt(n / 2), rows.get(random.nextInt(n / 2)));
+        }
+
+        MicroBench.measure("PersonStore: exact check every row", 2, 5, () -> {
+            PersonStore store = new PersonStore();
+            for (PersonRecord person : rows) {
+                if (store.rowOfEmail(person.email()) < 0) {
+                    store.insertUnchecked(person);
+                }
+            }
+            return store.size();
+        });
+        MicroBench.measure("PersonStore: Bloom-guarded", 2, 5, () -> {
+            PersonStore store = new PersonStore();
+            DedupingPersonIngest ingest = DedupingPersonIngest.into(store, 1 << 16, 0.01);
+            rows.forEach(ingest::offer);
+            return store.size();
+        });
+        MicroBench.measure("ordered set: exact check every row", 2, 5, () -> {
+            NavigableSet<String> emails = new TreeSet<>();
+            for (PersonRecord person : rows) {
+                if (!emails.contains(person.email())) {
+                    emails.add(person.email());
+                }
+            }
+            return emails.size();
+        });
+        MicroBench.measure("ordered set: Bloom-guarded", 2, 5, () -> {
+            NavigableSet<String> emails = new TreeSet<>();
+            DedupingPersonIngest ingest = new DedupingPersonIngest(1 << 16, 0.01,
+                emails::contains, person -> emails.add(person.email()));
+            rows.forEach(ingest::offer);
+            return emails.size();
+        });
+
+        // Emails already in the store are duplicates too
+        PersonStore seeded = new PersonStore();
+        seeded.insert(rows.get(0));
+        DedupingPersonIngest onSeeded = DedupingPersonIngest.into(seeded, 16, 0.01);
+        if (onSeeded.offer(rows.get(0)) || seeded.size() != 1) {
+            throw new AssertionError("Ingest accepted an email already in the store");
+        }
+
+        DedupingPersonIngest ingest = DedupingPersonIngest.into(new PersonStore(), 1 << 16, 0.01);
+        rows.forEach(ingest::offer);
+        ScalableBloomFilter filter = ingest.filter();
+        System.out.println(ingest.metrics());
+        System.out.printf("Filter: %d layers, %,d bytes, expected FPP %.4f%% (target %.2f%%)%n", filter.layers(),
+            filter.bytes(), 100 * filter.expectedFalsePositiveRate(), 100 * filter.targetFalsePositiveRate());
+    }
+}
+
+// 8. NORMALIZED-KEY RADIX SORT
+// Technique: LSD radix sort on age, then per age run an LSD radix sort on an
+//            order-preserving 128-bit name prefix, then a tie-break pass
+//
+// Sorting by Comparator.comparingInt(age).thenComparing(name) calls through
+// two lambdas per comparison and compares Strings char by char. Here:
+//   1. records are counting-sorted by age, one pass per significant byte of
+//      the largest age (one pass for human ages);
+//   2. inside each run of equal age, the first PREFIX_CHARS UTF-16 chars of
+//      the name are packed big-endian into two longs, so comparing the pair
+//      unsigned orders names like String.compareTo (shorter names pad with 0,
+//      which sorts first); runs are LSD radix-sorted on those 16 bytes,
+//      skipping every byte position that is the same across the run (for
+//      ASCII names, the high byte of every char);
+//   3. only stretches whose prefixes tie are compared as full Strings.
+// Every pass is stable, so the result is exactly what List.sort with the
+// composed comparator produces. Age runs never overlap, so sortParallel
+// hands them to a ForkJoinPool as independent tasks.
+final class PersonSorter {
+    static final int PREFIX_CHARS = 8;
+    static final int INSERTION_THRESHOLD = 32;
+
+    private static final Comparator<PersonRecord> BY_NAME = Comparator.comparing(PersonRecord::name);
+
+    private PersonSorter() {
+        throw new AssertionError("Utility class cannot be instantiated");
+    }
+
+    // In place, like people.sort(comparingInt(age).thenComparing(name))
+    public static void sort(List<PersonRecord> people) {
+        sort(people, null);
+    }
+
+    public static void sortParallel(List<PersonRecord> people, ForkJoinPool pool) {
+        sort(people, Objects.requireNonNull(pool));
+    }
+
+    private static void sort(List<PersonRecord> people, ForkJoinPool pool) {
+        PersonRecord[] sorted = sortByAge(people.toArray(new PersonRecord[0]));
+        int n = sorted.length;
+        PersonRecord[] scratch = new PersonRecord[n];
+        long[] hi = new long[n], lo = new long[n], hiScratch = new long[n], loScratch = new long[n];
+
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        for (int from = 0; from < n; ) {
+            int age = sorted[from].age();
+            int to = from + 1;
+            while (to < n && sorted[to].age() == age) {
+                to++;
+            }
+            int runFrom = from, runTo = to;
+            if (pool == null) {
+                sortRun(sorted, scratch, hi, lo, hiScratch, loScratch, runFrom, runTo);
+            } else {
+                tasks.add(pool.submit(() -> sortRun(sorted, scratch, hi, lo, hiScratch, loScratch, runFrom, runTo)));
+            }
+            from = to;
+        }
+        for (ForkJoinTask<?> task : tasks) {
+            task.join();
+        }
+        // Through a ListIterator, as List.sort does, so LinkedList is not quadratic
+        ListIterator<PersonRecord> it = people.listIterator();
+        for (PersonRecord person : sorted) {
+            it.next();
+            it.set(person);
+        }
+    }
+
+    // Stable LSD counting sort on the non-negative age, 8 bits per pass
+    private static PersonRecord[] sortByAge(PersonRecord[] records) {
+        int n = records.length;
+        int[] ages = new int[n];
+        int maxAge = 0;
+        for (int i = 0; i < n; i++) {
+            ages[i] = records[i].age();
+            maxAge = Math.max(maxAge, ages[i]);
+        }
+        PersonRecord[] recordsOut = new PersonRecord[n];
+        int[] agesOut = new int[n];
+        int[] counts = new int[257];
+        for (int shift = 0; shift == 0 || (maxAge >>> shift) != 0; shift += 8) {
+            Arrays.fill(counts, 0);
+            for (int age : ages) {
+                counts[((age >>> shift) & 0xFF) + 1]++;
+            }
+            for (int d = 0; d < 256; d++) {
+                counts[d + 1] += counts[d];
+            }
+            for (int i = 0; i < n; i++) {
+                int slot = counts[(ages[i] >>> shift) & 0xFF]++;
+                recordsOut[slot] = records[i];
+                agesOut[slot] = ages[i];
+            }
+            PersonRecord[] r = records; records = recordsOut; recordsOut = r;
+            int[] a = ages; ages = agesOut; agesOut = a;
+            if (shift == 24) {
+                break;
+            }
+        }
+        return records;
+    }
+
+    // Sorts [from, to) by name; all arrays are shared, runs are disjoint
+    private static void sortRun(PersonRecord[] records, PersonRecord[] scratch, long[] hi, long[] lo,
+                                long[] hiScratch, long[] loScratch, int from, int to) {
+        if (to - from < 2) {
+            return;
+        }
+        long hiOr = 0, hiAnd = -1, loOr = 0, loAnd = -1;
+        for (int i = from; i < to; i++) {
+            String name = records[i].name();
+            hi[i] = prefix(name, 0);
+            lo[i] = prefix(name, PREFIX_CHARS / 2);
+            hiOr |= hi[i]; hiAnd &= hi[i];
+            loOr |= lo[i]; loAnd &= lo[i];
+        }
+        if (to - from < INSERTION_THRESHOLD) {
+            insertionSort(records, hi, lo, from, to);
+            return;
+        }
+
+        // Least significant byte first: lo bytes 0-7, then hi bytes 0-7
+        PersonRecord[] src = records, dst = scratch;
+        long[] srcHi = hi, srcLo = lo, dstHi = hiScratch, dstLo = loScratch;
+        int[] counts = new int[257];
+        for (int digit = 0; digit < 16; digit++) {
+            boolean high = digit >= 8;
+            int shift = (digit & 7) * 8;
+            if ((((high ? hiOr ^ hiAnd : loOr ^ loAnd) >>> shift) & 0xFF) == 0) {
+                continue;
+            }
+            long[] keys = high ? srcHi : srcLo;
+            Arrays.fill(counts, 0);
+            for (int i = from; i < to; i++) {
+                counts[(int) ((keys[i] >>> shift) & 0xFF) + 1]++;
+            }
+            for (int d = 0; d < 256; d++) {
+                counts[d + 1] += counts[d];
+            }
+            for (int i = from; i < to; i++) {
+                int slot = from + counts[(int) ((keys[i] >>> shift) & 0xFF)]++;
+                dst[slot] = src[i];
+                dstHi[slot] = srcHi[i];
+                dstLo[slot] = srcLo[i];
+            }
+            PersonRecord[] r = src; src = dst; dst = r;
+            long[] h = srcHi; srcHi = dstHi; dstHi = h;
+            long[] l = srcLo; srcLo = dstLo; dstLo = l;
+        }
+        if (src != records) {
+            System.arraycopy(src, from, records, from, to - from);
+            System.arraycopy(srcHi, from, hi, from, to - from);
+            System.arraycopy(srcLo, from, lo, from, to - from);
+        }
+
+        // Equal prefixes: fall back to full String comparison (stable)
+        for (int i = from; i < to; ) {
+            int j = i + 1;
+            while (j < to && hi[j] == hi[i] && lo[j] == lo[i]) {
+                j++;
+            }
+            if (j - i > 1) {
+                Arrays.sort(records, i, j, BY_NAME);
+            }
+            i = j;
+        }
+    }
+
+    private static void insertionSort(PersonRecord[] records, long[] hi, long[] lo, int from, int to) {
+        for (int i = from + 1; i < to; i++) {
+            PersonRecord record = records[i];
+            long h = hi[i], l = lo[i];
+            int j = i - 1;
+            while (j >= from && compare(hi[j], lo[j], records[j], h, l, record) > 0) {
+                records[j + 1] = records[j];
+                hi[j + 1] = hi[j];
+                lo[j + 1] = lo[j];
+                j--;
+            }
+            records[j + 1] = record;
+            hi[j + 1] = h;
+            lo[j + 1] = l;
+        }
+    }
+
+    private static int compare(long hiA, long loA, PersonRecord a, long hiB, long loB, PersonRecord b) {
+        int c = Long.compareUnsigned(hiA, hiB);
+        if (c == 0) {
+            c = Long.compareUnsigned(loA, loB);
+        }
+        return c != 0 ? c : a.name().compareTo(b.name());
+    }
+
+    // Chars [start, start + 4) of name, big-endian, 0 past the end
+    static long prefix(String name, int start) {
+        long key = 0;
+        for (int i = start; i < start + 4; i++) {
+            key = (key << 16) | (i < name.length() ? name.charAt(i) : 0);
+        }
+        return key;
+    }
+}
+
+// List.sort with composed comparators vs the radix sorter, serial and parallel
+class PersonSorterBenchmark {
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        List<PersonRecord> people = PersonWorkloads.people(n, 29);
+        Comparator<PersonRecord> comparator = Comparator.comparingInt(PersonRecord::age)
+            .thenComparing(PersonRecord::name);
+
+        List<PersonRecord> expected = new ArrayList<>(people);
+        expected.sort(comparator);
+        List<PersonRecord> actual = new ArrayList<>(people);
+        PersonSorter.sortParallel(actual, ForkJoinPool.commonPool());
+        if (!actual.equals(expected)) {
+            throw new AssertionError("Radix sort disagrees with List.sort");
+        }
+
+        MicroBench.measure("List.sort(comparing.thenComparing)", 3, 10, () -> {
+            List<PersonRecord> copy = new ArrayList<>(people);
+            copy.sort(comparator);
+            return copy.size();
+        });
+        MicroBench.measure("PersonSorter.sort", 3, 10, () -> {
+            List<PersonRecord> copy = new ArrayList<>(people);
+            PersonSorter.sort(copy);
+            return copy.size();
+        });
+        MicroBench.measure("PersonSorter.sortParallel", 3, 10, () -> {
+            List<PersonRecord> copy = new ArrayList<>(people);
+            PersonSorter.sortParallel(copy, ForkJoinPool.commonPool());
+            return copy.size();
+        });
+    }
+}
+
+// DEMONSTRATION CLASS
+class RecordPerformanceDemo {
+    public static void main(String[] args) {
+        System.out.println("=== PERSONRECORD AT SCALE ===\n");
+
+        // 1-2. Columnar table and selection bitmaps
+        PersonTable table = PersonTable.of(List.of(
+            new PersonRecord("John", 30, "john@email.com"),
+            new PersonRecord("Jane", 41, "jane@example.org"),
+            new PersonRecord("Zoë", 35, "zoe@email.com")));
+        RowSelection thirties = table.ageBetween(30, 39);
+        System.out.println("Aged 30-39: " + table.materialize(thirties));
+        System.out.println("Aged 30-39 at email.com: "
+            + thirties.and(table.emailEndsWith("@email.com")).cardinality());
+
+        // 3. Compiled queries: the cheap, selective age test is moved first
+        PersonQuery query = PersonQuery.compile(
+            PersonPredicate.emailEndsWith("@email.com").and(PersonPredicate.ageBetween(30, 31)));
+        System.out.println("Plan: " + query.plan());
+        System.out.println("Matches in table: " + table.materialize(query.select(table)));
+
+        // 4. Memory-mapped loader
+        try {
+            Path file = Files.createTempFile("people", ".jsonl");
+            Files.writeString(file, "{\"name\":\"John\",\"age\":30,\"email\":\"john@email.com\"}\n"
+                + "{ \"email\": \"jane@example.org\", \"age\": 41, \"name\": \"Jane \\\"JD\\\" Doe\" }\r\n");
+            MappedPersonLoader loader = new MappedPersonLoader(MappedPersonLoader.Format.JSON_LINES);
+            System.out.println("Loaded " + loader.loadRecords(file));
+            Files.delete(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        // 5. Exception-free bulk construction
+        PersonBulkBuilder.Result bulk = PersonBulkBuilder.build(
+            new String[] {"John", "Bad", "Jane"}, new int[] {30, -5, 41},
+            new String[] {"john@email.com", "bad@email.com", "jane@example.org"});
+        System.out.println("Bulk build: " + bulk + ", row " + bulk.rejectedRow(0) + " -> " + bulk.reason(0));
+
+        // 6. Secondary indexes
+        PersonStore store = new PersonStore();
+        store.insert(new PersonRecord("John", 30, "john@email.com"));
+        store.insert(new PersonRecord("Jane", 41, "jane@example.org"));
+        store.insert(new PersonRecord("Jim", 33, "jim@email.com"));
+        store.deleteByEmail("john@email.com");
+        System.out.println("By email: " + store.findByEmail("jim@email.com").orElseThrow());
+        System.out.println("Aged 30-39 after delete: " + store.materialize(store.ageBetween(30, 39)));
+
+        // 7. Bloom-filter-guarded deduplication
+        DedupingPersonIngest ingest = DedupingPersonIngest.into(new PersonStore(), 1_000, 0.01);
+        ingest.offer(new PersonRecord("John", 30, "john@email.com"));
+        ingest.offer(new PersonRecord("Jane", 41, "jane@example.org"));
+        ingest.offer(new PersonRecord("Johnny", 31, "john@email.com"));
+        System.out.println("Dedup: " + ingest.metrics());
+
+        // 8. Normalized-key radix sort
+        List<PersonRecord> unsorted = new ArrayList<>(List.of(
+            new PersonRecord("Jane", 41, "jane@example.org"),
+            new PersonRecord("Zoë", 30, "zoe@email.com"),
+            new PersonRecord("John", 30, "john@email.com")));
+        PersonSorter.sort(unsorted);
+        System.out.println("Sorted by age, name: " + unsorted);
+    }
+}
+
+/*
+ * SUMMARY OF PERSONRECORD AT SCALE:
+ *
+ * 1.  Columnar Table:         int[] ages + UTF-8 byte buffers with int[] offsets, byte-level filters
+ * 2.  Selection Bitmap:       long[] words, branch-free age scan, AND/OR/NOT on whole words
+ * 3.  Compiled Queries:       predicate records, selectivity-ordered plan, MethodHandle bound in a hidden class
+ * 4.  Mapped Loader:          FileChannel.map windows, line-aligned parallel chunks, bytes copied into columns
+ * 5.  Bulk Construction:      validate first, rejects as int row + byte reason code, never throws per row
+ * 6.  Secondary Indexes:      int[] open-addressing email index over table bytes, age buckets with lazy deletes
+ * 7.  Bloom-Guarded Dedup:    layered Bloom filter (x2 capacity, x0.5 error per layer), exact check on hits
+ * 8.  Radix Sort:             LSD counting sort on age, 128-bit char-prefix radix per age run, String ties only
+ */
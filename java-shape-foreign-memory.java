@@ -0,0 +1,262 @@
+// =============================================================================
+// OFF-HEAP SHAPE STORAGE WITH THE FOREIGN FUNCTION & MEMORY API
+// =============================================================================
+// Companion to java-all-class-types.java. Uses java.lang.foreign (final in
+// Java 22; on Java 21 add --enable-preview --release 21 to javac and java):
+//     javac java-all-class-types.java java-shape-foreign-memory.java
+//     java  OffHeapShapeDemo
+
+import java.lang.foreign.*;
+import java.util.*;
+import java.util.function.*;
+
+// 1. FIXED-LAYOUT OFF-HEAP STORE
+// Command: Arena.ofShared() + arena.allocate(bytes, alignment) + segment.get(layout, offset)
+//
+// Each shape is one fixed-size record in a single native segment:
+//     Precision.DOUBLE: struct { byte tag; pad[3]; int colorId; double a; double b; }  (24 bytes)
+//     Precision.FLOAT:  struct { byte tag; pad[3]; int colorId; float a;  float b;  }  (16 bytes)
+//     Circle: a = radius | Rectangle: a = width, b = height | Triangle: a = base, b = height
+// FLOAT is the opt-in compact mode: a third less memory per row, and each
+// dimension is rounded to the nearest float (relative error <= 2^-24, i.e.
+// about 7 significant decimal digits), so areas carry a relative error of
+// about 1.2e-7 compared with calculateArea() on the original doubles.
+// The GC only sees the store object and a small color table, never the rows.
+// Memory is released when close() closes the arena; any later access fails
+// with IllegalStateException instead of reading freed memory.
+final class OffHeapShapeStore implements AutoCloseable {
+    static final byte CIRCLE = 0;
+    static final byte RECTANGLE = 1;
+    static final byte TRIANGLE = 2;
+
+    enum Precision {
+        DOUBLE(ValueLayout.JAVA_DOUBLE),
+        FLOAT(ValueLayout.JAVA_FLOAT);
+
+        final StructLayout record;
+
+        Precision(ValueLayout dimension) {
+            this.record = MemoryLayout.structLayout(
+                ValueLayout.JAVA_BYTE.withName("tag"),
+                MemoryLayout.paddingLayout(3),
+                ValueLayout.JAVA_INT.withName("colorId"),
+                dimension.withName("a"),
+                dimension.withName("b"));
+        }
+
+        long offsetOf(String field) {
+            return record.byteOffset(MemoryLayout.PathElement.groupElement(field));
+        }
+    }
+
+    private static final long TAG = Precision.DOUBLE.offsetOf("tag");
+    private static final long COLOR_ID = Precision.DOUBLE.offsetOf("colorId");
+
+    private final Precision precision;
+    private final boolean compact;
+    private final long recordSize;
+    private final long offsetA, offsetB;
+
+    private final Arena arena;
+    private final MemorySegment segment;
+    private final int capacity;
+    private int size;
+
+    // Small on-heap color table: colorId -> color
+    private final List<String> colors = new ArrayList<>();
+    private final Map<String, Integer> colorIds = new HashMap<>();
+
+    public OffHeapShapeStore(int capacity) {
+        this(capacity, Precision.DOUBLE);
+    }
+
+    public OffHeapShapeStore(int capacity, Precision precision) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        this.capacity = capacity;
+        this.precision = Objects.requireNonNull(precision);
+        this.compact = precision == Precision.FLOAT;
+        this.recordSize = precision.record.byteSize();
+        this.offsetA = precision.offsetOf("a");
+        this.offsetB = precision.offsetOf("b");
+        // Shared arena: rows may be read from several threads, close() frees everything at once
+        this.arena = Arena.ofShared();
+        this.segment = arena.allocate(recordSize * capacity, precision.record.byteAlignment());
+    }
+
+    public int add(Shape shape) {
+        if (shape instanceof Circle c) {
+            return write(CIRCLE, c.getColor(), c.getRadius(), 0.0);
+        } else if (shape instanceof Rectangle r) {
+            return write(RECTANGLE, r.getColor(), r.getWidth(), r.getHeight());
+        } else if (shape instanceof Triangle t && t.getClass() == Triangle.class) {
+            return write(TRIANGLE, t.getColor(), t.getBase(), t.getHeight());
+        }
+        throw new IllegalArgumentException("Unsupported shape type: " + shape.getClass().getName());
+    }
+
+    private int write(byte tag, String color, double a, double b) {
+        if (size == capacity) {
+            throw new IllegalStateException("Store is full: capacity " + capacity);
+        }
+        long offset = size * recordSize;
+        segment.set(ValueLayout.JAVA_BYTE, offset + TAG, tag);
+        segment.set(ValueLayout.JAVA_INT, offset + COLOR_ID, colorId(color));
+        if (compact) {
+            segment.set(ValueLayout.JAVA_FLOAT, offset + offsetA, toFloat(a));
+            segment.set(ValueLayout.JAVA_FLOAT, offset + offsetB, toFloat(b));
+        } else {
+            segment.set(ValueLayout.JAVA_DOUBLE, offset + offsetA, a);
+            segment.set(ValueLayout.JAVA_DOUBLE, offset + offsetB, b);
+        }
+        return size++;
+    }
+
+    // Nearest float; values outside the float range are rejected rather than stored as infinity
+    private static float toFloat(double value) {
+        float narrowed = (float) value;
+        if (Float.isInfinite(narrowed) && !Double.isInfinite(value)) {
+            throw new IllegalArgumentException("Dimension out of float range: " + value);
+        }
+        return narrowed;
+    }
+
+    // Dimensions are widened to double on read in FLOAT mode
+    private double dimension(long at) {
+        return compact ? segment.get(ValueLayout.JAVA_FLOAT, at) : segment.get(ValueLayout.JAVA_DOUBLE, at);
+    }
+
+    private int colorId(String color) {
+        Integer id = colorIds.get(color);
+        if (id == null) {
+            id = colors.size();
+            colors.add(color);
+            colorIds.put(color, id);
+        }
+        return id;
+    }
+
+    public int size() { return size; }
+    public int capacity() { return capacity; }
+    public long byteSize() { return segment.byteSize(); }
+    public Precision precision() { return precision; }
+
+    // Bulk area without materializing any Shape objects; same formulas as calculateArea()
+    public double totalArea() {
+        double total = 0.0;
+        for (long offset = 0, end = size * recordSize; offset < end; offset += recordSize) {
+            total += area(offset);
+        }
+        return total;
+    }
+
+    public void areas(double[] out) {
+        if (out.length < size) {
+            throw new IllegalArgumentException("Output array too small: " + out.length + " < " + size);
+        }
+        for (int row = 0; row < size; row++) {
+            out[row] = area(row * recordSize);
+        }
+    }
+
+    private double area(long offset) {
+        double a = dimension(offset + offsetA);
+        return switch (segment.get(ValueLayout.JAVA_BYTE, offset + TAG)) {
+            case CIRCLE -> Math.PI * a * a;
+            case RECTANGLE -> a * dimension(offset + offsetB);
+            default -> 0.5 * a * dimension(offset + offsetB);
+        };
+    }
+
+    // Single reused view walking every row
+    public void forEach(Consumer<? super ShapeView> action) {
+        ShapeView view = new ShapeView();
+        for (int row = 0; row < size; row++) {
+            action.accept(view.moveTo(row));
+        }
+    }
+
+    public ShapeView view(int row) {
+        return new ShapeView().moveTo(row);
+    }
+
+    @Override
+    public void close() {
+        arena.close();
+    }
+
+    // 2. FLYWEIGHT VIEW
+    // Command: inner class holding only a row offset, reading fields on demand
+    //
+    // Shape is sealed, so a view cannot itself be a Shape without pretending to
+    // be a Triangle subclass. The view mirrors the Shape API instead and
+    // materializes a real Circle/Rectangle/Triangle only when toShape() is called.
+    final class ShapeView {
+        private long offset;
+
+        public ShapeView moveTo(int row) {
+            Objects.checkIndex(row, size);
+            offset = row * recordSize;
+            return this;
+        }
+
+        public byte tag() {
+            return segment.get(ValueLayout.JAVA_BYTE, offset + TAG);
+        }
+
+        public int colorId() {
+            return segment.get(ValueLayout.JAVA_INT, offset + COLOR_ID);
+        }
+
+        public String getColor() {
+            return colors.get(colorId());
+        }
+
+        public double calculateArea() {
+            return area(offset);
+        }
+
+        public Shape toShape() {
+            double a = dimension(offset + offsetA);
+            double b = dimension(offset + offsetB);
+            return switch (tag()) {
+                case CIRCLE -> new Circle(getColor(), a);
+                case RECTANGLE -> new Rectangle(getColor(), a, b);
+                default -> new Triangle(getColor(), a, b);
+            };
+        }
+    }
+}
+
+// DEMONSTRATION CLASS
+class OffHeapShapeDemo {
+    public static void main(String[] args) {
+        try (OffHeapShapeStore store = new OffHeapShapeStore(1_000)) {
+            store.add(new Circle("Red", 5.0));
+            store.add(new Rectangle("Blue", 4.0, 6.0));
+            store.add(new Triangle("Green", 3.0, 8.0));
+
+            System.out.println("Off-heap rows: " + store.size() + " (" + store.byteSize() + " bytes reserved)");
+            System.out.println("Off-heap total area: " + store.totalArea());
+            store.forEach(view -> System.out.println("  " + view.getColor() + " -> " + view.calculateArea()));
+            System.out.println("Materialized row 1 area: " + store.view(1).toShape().calculateArea());
+        }
+
+        try (OffHeapShapeStore compact = new OffHeapShapeStore(1_000, OffHeapShapeStore.Precision.FLOAT)) {
+            compact.add(new Circle("Red", 5.1));
+            System.out.println("Float32 rows: " + compact.byteSize() + " bytes reserved, circle area "
+                + compact.totalArea() + " vs " + new Circle("Red", 5.1).calculateArea());
+        }
+    }
+}
+
+/*
+ * SUMMARY:
+ *
+ * Arena.ofShared()                     owner of native memory, freed by close()
+ * MemoryLayout.structLayout(...)       fixed record layout, offsets via byteOffset(PathElement)
+ * segment.get/set(ValueLayout, off)    bounds-checked reads/writes, no objects per row
+ * Flyweight view                       one reusable cursor object instead of one object per row
+ * Precision.FLOAT                      opt-in float dimensions, widened to double when read
+ */
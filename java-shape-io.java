@@ -0,0 +1,555 @@
+// =============================================================================
+// SHAPE I/O: BINARY CODEC AND BULK LOADING
+// =============================================================================
+// Companion to java-all-class-types.java and java-shape-performance.java
+// (ShapeColumns, ColorDictionary). Compile them together:
+//     javac java-all-class-types.java java-benchmark-utils.java \
+//           java-shape-performance.java java-shape-io.java
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+// 1. SEALED-AWARE BINARY CODEC
+// Technique: one-byte subtype tag + fixed-width fields + per-batch color table
+//
+// Batch layout (in the ByteBuffer's byte order; both sides must agree, and a
+// mismatch is caught by the magic number):
+//     int    MAGIC
+//     int    colorCount
+//     colorCount x { short byteLength; byte[] utf8 }
+//     int    recordCount
+//     recordCount x { byte tag; short colorIndex; double a; [double b] }
+//         CIRCLE    -> a = radius                       (11 bytes)
+//         RECTANGLE -> a = width, b = height            (19 bytes)
+//         TRIANGLE  -> a = base,  b = height            (19 bytes)
+// Colors are written once per batch, so records stay fixed width and decoding
+// a record allocates nothing when the target is a ShapeColumns.
+//
+// Triangle is non-sealed: a subclass may carry extra state or override
+// calculateArea(), and encoding it as a plain Triangle would silently change
+// its meaning on the other side. The encoder therefore accepts exactly
+// Circle, Rectangle and Triangle and rejects everything else up front, before
+// a single byte of the batch is written. On decode an unknown tag is reported
+// as a corrupt stream instead of being guessed at.
+final class ShapeBinaryCodec {
+    static final int MAGIC = 0x53485031; // "SHP1"
+
+    static final byte CIRCLE = 1;
+    static final byte RECTANGLE = 2;
+    static final byte TRIANGLE = 3;
+
+    static final int CIRCLE_RECORD_BYTES = 1 + 2 + 8;
+    static final int TWO_DIMENSION_RECORD_BYTES = 1 + 2 + 8 + 8;
+
+    private ShapeBinaryCodec() {
+        throw new AssertionError("Utility class cannot be instantiated");
+    }
+
+    static byte tagOf(Shape shape) {
+        Class<?> type = shape.getClass();
+        if (type == Circle.class) {
+            return CIRCLE;
+        } else if (type == Rectangle.class) {
+            return RECTANGLE;
+        } else if (type == Triangle.class) {
+            return TRIANGLE;
+        }
+        throw new IllegalArgumentException("Cannot encode unknown Shape subclass: " + type.getName());
+    }
+
+    // Exact number of bytes encodeBatch will write
+    public static int encodedSize(List<? extends Shape> shapes) {
+        Map<String, Integer> colorIndexes = new LinkedHashMap<>();
+        long size = 4 + 4 + 4;
+        for (Shape shape : shapes) {
+            size += tagOf(shape) == CIRCLE ? CIRCLE_RECORD_BYTES : TWO_DIMENSION_RECORD_BYTES;
+            if (colorIndexes.putIfAbsent(shape.getColor(), colorIndexes.size()) == null) {
+                size += 2 + utf8(shape.getColor()).length;
+            }
+        }
+        return Math.toIntExact(size);
+    }
+
+    public static void encodeBatch(List<? extends Shape> shapes, ByteBuffer out) {
+        // Validate and build the color table before touching the buffer
+        byte[] tags = new byte[shapes.size()];
+        Map<String, Integer> colorIndexes = new LinkedHashMap<>();
+        for (int i = 0; i < tags.length; i++) {
+            Shape shape = shapes.get(i);
+            tags[i] = tagOf(shape);
+            colorIndexes.putIfAbsent(Objects.requireNonNull(shape.getColor(), "color"), colorIndexes.size());
+        }
+        if (colorIndexes.size() > 0xFFFF) {
+            throw new IllegalArgumentException("Too many distinct colors in one batch: " + colorIndexes.size());
+        }
+
+        out.putInt(MAGIC);
+        out.putInt(colorIndexes.size());
+        for (String color : colorIndexes.keySet()) {
+            byte[] bytes = utf8(color);
+            out.putShort((short) bytes.length);
+            out.put(bytes);
+        }
+        out.putInt(tags.length);
+        for (int i = 0; i < tags.length; i++) {
+            Shape shape = shapes.get(i);
+            out.put(tags[i]);
+            out.putShort((short) (int) colorIndexes.get(shape.getColor()));
+            switch (tags[i]) {
+                case CIRCLE -> out.putDouble(((Circle) shape).getRadius());
+                case RECTANGLE -> {
+                    Rectangle r = (Rectangle) shape;
+                    out.putDouble(r.getWidth());
+                    out.putDouble(r.getHeight());
+                }
+                default -> {
+                    Triangle t = (Triangle) shape;
+                    out.putDouble(t.getBase());
+                    out.putDouble(t.getHeight());
+                }
+            }
+        }
+    }
+
+    public static List<Shape> decodeBatch(ByteBuffer in) {
+        String[] colors = readHeader(in);
+        int count = in.getInt();
+        List<Shape> shapes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            byte tag = in.get();
+            String color = color(colors, in.getShort());
+            shapes.add(switch (tag) {
+                case CIRCLE -> new Circle(color, in.getDouble());
+                case RECTANGLE -> new Rectangle(color, in.getDouble(), in.getDouble());
+                case TRIANGLE -> new Triangle(color, in.getDouble(), in.getDouble());
+                default -> throw corrupt(tag, i);
+            });
+        }
+        return shapes;
+    }
+
+    // Appends the batch to a columnar target; no object per record. Call
+    // target.clear() first to reuse one store for batch after batch.
+    // Returns the number of rows decoded.
+    public static int decodeBatch(ByteBuffer in, ShapeColumns target) {
+        String[] colors = readHeader(in);
+        int count = in.getInt();
+        for (int i = 0; i < count; i++) {
+            byte tag = in.get();
+            String color = color(colors, in.getShort());
+            switch (tag) {
+                case CIRCLE -> target.addCircle(color, in.getDouble());
+                case RECTANGLE -> target.addRectangle(color, in.getDouble(), in.getDouble());
+                case TRIANGLE -> target.addTriangle(color, in.getDouble(), in.getDouble());
+                default -> throw corrupt(tag, i);
+            }
+        }
+        return count;
+    }
+
+    private static String[] readHeader(ByteBuffer in) {
+        int magic = in.getInt();
+        if (magic != MAGIC) {
+            throw new IllegalArgumentException("Not a shape batch (bad magic 0x" + Integer.toHexString(magic)
+                + "; check the buffer byte order)");
+        }
+        int colorCount = in.getInt();
+        if (colorCount < 0 || colorCount > 0xFFFF) {
+            throw new IllegalArgumentException("Corrupt shape batch: color count " + colorCount);
+        }
+        String[] colors = new String[colorCount];
+        for (int i = 0; i < colorCount; i++) {
+            byte[] bytes = new byte[Short.toUnsignedInt(in.getShort())];
+            in.get(bytes);
+            // Canonical instance, so decoded shapes share color Strings
+            colors[i] = ColorDictionary.shared().intern(new String(bytes, StandardCharsets.UTF_8));
+        }
+        return colors;
+    }
+
+    private static String color(String[] colors, short index) {
+        int i = Short.toUnsignedInt(index);
+        if (i >= colors.length) {
+            throw new IllegalArgumentException("Corrupt shape batch: color index " + i);
+        }
+        return colors[i];
+    }
+
+    private static IllegalArgumentException corrupt(byte tag, int record) {
+        return new IllegalArgumentException("Corrupt shape batch: unknown tag " + tag + " at record " + record);
+    }
+
+    private static byte[] utf8(String color) {
+        byte[] bytes = color.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xFFFF) {
+            throw new IllegalArgumentException("Color too long to encode: " + bytes.length + " bytes");
+        }
+        return bytes;
+    }
+}
+
+// 2. MEMORY-MAPPED STREAMING LOADER
+// Technique: FileChannel.map windows + split on record boundaries + parallel parse
+//
+// Text format, one shape per line (CR LF tolerated, blank lines skipped):
+//     circle,Red,5.0
+//     rectangle,Blue,4,6
+//     triangle,Green,3,8
+// The file is mapped one window at a time (windowBytes, default 64 MiB). Each
+// window is cut back to its last newline, split into one chunk per worker on
+// newline boundaries, and every chunk is parsed straight from the mapped bytes
+// into its own ShapeColumns. Chunks are handed to the sink in file order, then
+// the next window is mapped, so heap use is bounded by one window's worth of
+// parsed rows no matter how large the file is. (Mapped windows are released by
+// the GC; only address space, not heap, is held until then.)
+//
+// Parsing creates no String per field: colors are resolved through a small
+// per-chunk byte cache onto ColorDictionary instances, and numbers use the
+// exact fast path (mantissa < 2^53, |exponent| <= 22) with Double.parseDouble
+// only as a fallback, so results are always correctly rounded.
+class MappedShapeLoader {
+    static final long DEFAULT_WINDOW_BYTES = 64L << 20;
+
+    private final long windowBytes;
+    private final ForkJoinPool pool;
+    private final int parallelism;
+
+    public MappedShapeLoader() {
+        this(DEFAULT_WINDOW_BYTES, ForkJoinPool.commonPool());
+    }
+
+    public MappedShapeLoader(long windowBytes, ForkJoinPool pool) {
+        if (windowBytes < 1 || windowBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Window size must be in [1, Integer.MAX_VALUE]");
+        }
+        this.windowBytes = windowBytes;
+        this.pool = Objects.requireNonNull(pool);
+        this.parallelism = pool.getParallelism();
+    }
+
+    // Streams parsed chunks to sink in file order
+    public void load(Path file, Consumer<ShapeColumns> sink) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            long position = 0;
+            while (position < fileSize) {
+                long length = Math.min(windowBytes, fileSize - position);
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                int end = (int) length;
+                if (position + length < fileSize) {
+                    end = lastNewline(window, end) + 1;
+                    if (end == 0) {
+                        throw new IOException("Line at offset " + position + " is longer than the "
+                            + windowBytes + "-byte window");
+                    }
+                }
+                for (ShapeColumns chunk : parseWindow(window, end, position)) {
+                    sink.accept(chunk);
+                }
+                position += end;
+            }
+        }
+    }
+
+    // Convenience: whole file into one store (not bounded; use load(...) for huge files)
+    public ShapeColumns loadColumns(Path file) throws IOException {
+        ShapeColumns all = new ShapeColumns();
+        load(file, chunk -> {
+            for (int row = 0; row < chunk.size(); row++) {
+                all.add(chunk.get(row));
+            }
+        });
+        return all;
+    }
+
+    private List<ShapeColumns> parseWindow(ByteBuffer window, int end, long windowOffset) throws IOException {
+        // Chunk boundaries: roughly equal sizes, each moved forward to the next line start
+        int chunks = Math.max(1, Math.min(parallelism, end / 4096));
+        int[] bounds = new int[chunks + 1];
+        bounds[chunks] = end;
+        for (int i = 1; i < chunks; i++) {
+            int cut = Math.max(bounds[i - 1], (int) ((long) end * i / chunks));
+            while (cut < end && window.get(cut - 1) != '\n') {
+                cut++;
+            }
+            bounds[i] = cut;
+        }
+
+        List<ForkJoinTask<ShapeColumns>> tasks = new ArrayList<>(chunks);
+        for (int i = 0; i < chunks; i++) {
+            int from = bounds[i], to = bounds[i + 1];
+            tasks.add(pool.submit(() -> new ChunkParser(window, windowOffset).parse(from, to)));
+        }
+        List<ShapeColumns> parsed = new ArrayList<>(chunks);
+        for (ForkJoinTask<ShapeColumns> task : tasks) {
+            try {
+                parsed.add(task.join());
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+        return parsed;
+    }
+
+    private static int lastNewline(ByteBuffer window, int end) {
+        for (int i = end - 1; i >= 0; i--) {
+            if (window.get(i) == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Parses one chunk with absolute gets, so chunks can share the mapped buffer
+    private static final class ChunkParser {
+        private static final byte[] CIRCLE = "circle".getBytes(StandardCharsets.US_ASCII);
+        private static final byte[] RECTANGLE = "rectangle".getBytes(StandardCharsets.US_ASCII);
+        private static final byte[] TRIANGLE = "triangle".getBytes(StandardCharsets.US_ASCII);
+        private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+        private final ByteBuffer buffer;
+        private final long windowOffset;
+        private final ShapeColumns out = new ShapeColumns(1024);
+        // Tiny color cache: a few dozen colors, linear scan beats hashing bytes
+        private byte[][] colorKeys = new byte[8][];
+        private String[] colorValues = new String[8];
+        private int colorCount;
+        private int pos;
+
+        ChunkParser(ByteBuffer buffer, long windowOffset) {
+            this.buffer = buffer;
+            this.windowOffset = windowOffset;
+        }
+
+        ShapeColumns parse(int from, int to) {
+            pos = from;
+            while (pos < to) {
+                int lineEnd = pos;
+                while (lineEnd < to && buffer.get(lineEnd) != '\n') {
+                    lineEnd++;
+                }
+                int contentEnd = lineEnd > pos && buffer.get(lineEnd - 1) == '\r' ? lineEnd - 1 : lineEnd;
+                if (contentEnd > pos) {
+                    parseLine(contentEnd);
+                }
+                pos = lineEnd + 1;
+            }
+            return out;
+        }
+
+        private void parseLine(int end) {
+            int lineStart = pos;
+            byte kind = kind(lineStart, end);
+            String color = color(lineStart, end);
+            double a = number(end);
+            switch (kind) {
+                case 'c' -> out.addCircle(color, a);
+                case 'r' -> {
+                    separator(lineStart, end);
+                    out.addRectangle(color, a, number(end));
+                }
+                default -> {
+                    separator(lineStart, end);
+                    out.addTriangle(color, a, number(end));
+                }
+            }
+            if (pos < end) {
+                throw malformed(lineStart, "trailing fields");
+            }
+        }
+
+        // Steps past the ',' that must follow a field
+        private void separator(int lineStart, int end) {
+            if (pos >= end || buffer.get(pos) != ',') {
+                throw malformed(lineStart, "missing fields");
+            }
+            pos++;
+        }
+
+        // The whole first field must name a type: "cat" is not a circle
+        private byte kind(int lineStart, int end) {
+            while (pos < end && buffer.get(pos) != ',') {
+                pos++;
+            }
+            int length = pos - lineStart;
+            byte kind;
+            if (matches(CIRCLE, lineStart, length)) {
+                kind = 'c';
+            } else if (matches(RECTANGLE, lineStart, length)) {
+                kind = 'r';
+            } else if (matches(TRIANGLE, lineStart, length)) {
+                kind = 't';
+            } else {
+                throw malformed(lineStart, "unknown shape type");
+            }
+            separator(lineStart, end);
+            return kind;
+        }
+
+        private String color(int lineStart, int end) {
+            int start = pos;
+            while (pos < end && buffer.get(pos) != ',') {
+                pos++;
+            }
+            int length = pos - start;
+            separator(lineStart, end);
+            for (int i = 0; i < colorCount; i++) {
+                if (matches(colorKeys[i], start, length)) {
+                    return colorValues[i];
+                }
+            }
+            byte[] key = new byte[length];
+            buffer.get(start, key);
+            if (colorCount == colorKeys.length) {
+                colorKeys = Arrays.copyOf(colorKeys, colorCount * 2);
+                colorValues = Arrays.copyOf(colorValues, colorCount * 2);
+            }
+            colorKeys[colorCount] = key;
+            colorValues[colorCount] = ColorDictionary.shared().intern(new String(key, StandardCharsets.UTF_8));
+            return colorValues[colorCount++];
+        }
+
+        private boolean matches(byte[] key, int start, int length) {
+            if (key.length != length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (key[i] != buffer.get(start + i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private double number(int end) {
+            int start = pos;
+            boolean negative = false;
+            if (pos < end && (buffer.get(pos) == '-' || buffer.get(pos) == '+')) {
+                negative = buffer.get(pos) == '-';
+                pos++;
+            }
+            long mantissa = 0;
+            int digits = 0, scale = 0;
+            boolean exact = true, seenDot = false, any = false;
+            for (; pos < end; pos++) {
+                byte b = buffer.get(pos);
+                if (b >= '0' && b <= '9') {
+                    any = true;
+                    if (digits < 18) {
+                        mantissa = mantissa * 10 + (b - '0');
+                        if (mantissa != 0) {
+                            digits++;
+                        }
+                        if (seenDot) {
+                            scale++;
+                        }
+                    } else {
+                        exact = false;
+                    }
+                } else if (b == '.' && !seenDot) {
+                    seenDot = true;
+                } else {
+                    break;
+                }
+            }
+            if (pos < end && buffer.get(pos) != ',') {
+                // Exponents, NaN, Infinity, ...: leave them to the JDK
+                exact = false;
+                while (pos < end && buffer.get(pos) != ',') {
+                    pos++;
+                }
+            }
+            int fieldEnd = pos;
+            if (exact && any && mantissa < (1L << 53) && scale <= 22) {
+                double value = mantissa / POWERS_OF_TEN[scale];
+                return negative ? -value : value;
+            }
+            byte[] text = new byte[fieldEnd - start];
+            buffer.get(start, text);
+            try {
+                return Double.parseDouble(new String(text, StandardCharsets.US_ASCII));
+            } catch (NumberFormatException e) {
+                throw malformed(start, "bad number");
+            }
+        }
+
+        private UncheckedIOException malformed(int at, String reason) {
+            return new UncheckedIOException(new IOException(
+                "Malformed shape line near byte " + (windowOffset + at) + ": " + reason));
+        }
+    }
+}
+
+// DEMONSTRATION CLASS
+class ShapeIoDemo {
+    public static void main(String[] args) {
+        System.out.println("=== SHAPE I/O ===\n");
+
+        List<Shape> shapes = List.of(
+            new Circle("Red", 5.0),
+            new Rectangle("Blue", 4.0, 6.0),
+            new Triangle("Red", 3.0, 8.0));
+
+        // 1. Binary codec
+        ByteBuffer buffer = ByteBuffer.allocate(ShapeBinaryCodec.encodedSize(shapes));
+        ShapeBinaryCodec.encodeBatch(shapes, buffer);
+        System.out.println("Encoded " + shapes.size() + " shapes in " + buffer.position() + " bytes");
+        buffer.flip();
+        ShapeColumns decoded = new ShapeColumns();
+        ShapeBinaryCodec.decodeBatch(buffer, decoded);
+        System.out.println("Decoded total area: " + decoded.totalArea());
+        buffer.rewind();
+        decoded.clear();
+        ShapeBinaryCodec.decodeBatch(buffer, decoded);
+        System.out.println("Reused store after clear(): " + decoded.size() + " rows");
+
+        Triangle custom = new Triangle("Green", 1.0, 1.0) {
+            @Override
+            public double calculateArea() {
+                return 42.0;
+            }
+        };
+        try {
+            ShapeBinaryCodec.encodeBatch(List.of(custom), ByteBuffer.allocate(64));
+        } catch (IllegalArgumentException e) {
+            System.out.println("Rejected: " + e.getMessage());
+        }
+
+        // 2. Memory-mapped loader
+        try {
+            Path file = Files.createTempFile("shapes", ".csv");
+            Files.writeString(file, "circle,Red,5.0\nrectangle,Blue,4,6\r\n\ntriangle,Red,3,8\n");
+            ShapeColumns loaded = new MappedShapeLoader().loadColumns(file);
+            System.out.println("Loaded " + loaded.size() + " shapes, total area " + loaded.totalArea());
+            // Unknown types and truncated lines are rejected, not guessed from their first byte
+            for (String bad : List.of("cat,Red,5", "rhombus,Blue,1,2", "trapezoid,Green,3,4",
+                    "circle", "circle,Red", "rectangle,Blue,4", "triangle,Red,3,")) {
+                Files.writeString(file, bad + "\n");
+                try {
+                    new MappedShapeLoader().loadColumns(file);
+                    throw new AssertionError("Accepted malformed line: " + bad);
+                } catch (IOException expected) {
+                    // reported as malformed
+                }
+            }
+            Files.delete(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
+
+/*
+ * SUMMARY OF SHAPE I/O PATTERNS:
+ *
+ * 1.  Binary Codec:           tag byte + fixed-width fields, color table per batch, exact-class check
+ * 2.  Mapped Loader:          FileChannel.map windows, newline-aligned chunks, parallel parse
+ */
@@ -0,0 +1,1488 @@
+// =============================================================================
+// PERFORMANCE PATTERNS FOR THE SEALED SHAPE HIERARCHY
+// =============================================================================
+// Companion notes to java-all-class-types.java. Every class here works on the
+// Shape / Circle / Rectangle / Triangle hierarchy declared in that file, and the
+// *Benchmark classes use MicroBench, so compile all three together:
+//     javac java-all-class-types.java java-benchmark-utils.java java-shape-performance.java
+
+import java.lang.ref.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+// 1. COLUMNAR STORE (Structure of Arrays)
+// Technique: one primitive array per field instead of one object per row
+//
+// A List<Shape> is an array of pointers to scattered heap objects. ShapeColumns
+// keeps each permitted subclass in its own dense double[] columns, plus a tag
+// array and a slot array that remember the original row order. Colors are
+// stored as ColorDictionary ids (section 6).
+class ShapeColumns {
+    static final byte CIRCLE = 0;
+    static final byte RECTANGLE = 1;
+    static final byte TRIANGLE = 2;
+
+    // Row -> (type, position inside that type's columns)
+    private byte[] tags;
+    private int[] slots;
+    private short[] colorIds;
+    private int size;
+    private final ColorDictionary dictionary;
+
+    // Per-type columns, each with the inverse slot -> row mapping
+    private double[] radii;
+    private int[] circleRows;
+    private int circleCount;
+
+    private double[] widths, rectHeights;
+    private int[] rectangleRows;
+    private int rectangleCount;
+
+    private double[] bases, triangleHeights;
+    private int[] triangleRows;
+    private int triangleCount;
+
+    public ShapeColumns() {
+        this(16);
+    }
+
+    public ShapeColumns(int initialCapacity) {
+        this(initialCapacity, ColorDictionary.shared());
+    }
+
+    public ShapeColumns(int initialCapacity, ColorDictionary dictionary) {
+        this.dictionary = Objects.requireNonNull(dictionary);
+        int capacity = Math.max(initialCapacity, 1);
+        tags = new byte[capacity];
+        slots = new int[capacity];
+        colorIds = new short[capacity];
+        radii = new double[capacity];
+        circleRows = new int[capacity];
+        widths = new double[capacity];
+        rectHeights = new double[capacity];
+        rectangleRows = new int[capacity];
+        bases = new double[capacity];
+        triangleHeights = new double[capacity];
+        triangleRows = new int[capacity];
+    }
+
+    // Import from ordinary objects
+    public static ShapeColumns of(Collection<? extends Shape> shapes) {
+        ShapeColumns columns = new ShapeColumns(shapes.size());
+        for (Shape shape : shapes) {
+            columns.add(shape);
+        }
+        return columns;
+    }
+
+    public int add(Shape shape) {
+        // Exhaustive over the sealed hierarchy. Subclasses of the non-sealed
+        // Triangle may override calculateArea(), so they cannot be flattened.
+        if (shape instanceof Circle c) {
+            return addCircle(c.getColor(), c.getRadius());
+        } else if (shape instanceof Rectangle r) {
+            return addRectangle(r.getColor(), r.getWidth(), r.getHeight());
+        } else if (shape instanceof Triangle t && t.getClass() == Triangle.class) {
+            return addTriangle(t.getColor(), t.getBase(), t.getHeight());
+        }
+        throw new IllegalArgumentException("Unsupported shape type: " + shape.getClass().getName());
+    }
+
+    public int addCircle(String color, double radius) {
+        if (circleCount == radii.length) {
+            radii = Arrays.copyOf(radii, circleCount * 2);
+            circleRows = Arrays.copyOf(circleRows, circleCount * 2);
+        }
+        radii[circleCount] = radius;
+        circleRows[circleCount] = size;
+        return addRow(CIRCLE, circleCount++, color);
+    }
+
+    public int addRectangle(String color, double width, double height) {
+        if (rectangleCount == widths.length) {
+            widths = Arrays.copyOf(widths, rectangleCount * 2);
+            rectHeights = Arrays.copyOf(rectHeights, rectangleCount * 2);
+            rectangleRows = Arrays.copyOf(rectangleRows, rectangleCount * 2);
+        }
+        widths[rectangleCount] = width;
+        rectHeights[rectangleCount] = height;
+        rectangleRows[rectangleCount] = size;
+        return addRow(RECTANGLE, rectangleCount++, color);
+    }
+
+    public int addTriangle(String color, double base, double height) {
+        if (triangleCount == bases.length) {
+            bases = Arrays.copyOf(bases, triangleCount * 2);
+            triangleHeights = Arrays.copyOf(triangleHeights, triangleCount * 2);
+            triangleRows = Arrays.copyOf(triangleRows, triangleCount * 2);
+        }
+        bases[triangleCount] = base;
+        triangleHeights[triangleCount] = height;
+        triangleRows[triangleCount] = size;
+        return addRow(TRIANGLE, triangleCount++, color);
+    }
+
+    private int addRow(byte tag, int slot, String color) {
+        if (size == tags.length) {
+            int capacity = size * 2;
+            tags = Arrays.copyOf(tags, capacity);
+            slots = Arrays.copyOf(slots, capacity);
+            colorIds = Arrays.copyOf(colorIds, capacity);
+        }
+        tags[size] = tag;
+        slots[size] = slot;
+        colorIds[size] = (short) dictionary.idOf(color);
+        return size++;
+    }
+
+    public int size() { return size; }
+    public int circleCount() { return circleCount; }
+    public int rectangleCount() { return rectangleCount; }
+    public int triangleCount() { return triangleCount; }
+
+    // Drops all rows but keeps the allocated columns, so one store can be refilled batch after batch
+    public void clear() {
+        size = 0;
+        circleCount = 0;
+        rectangleCount = 0;
+        triangleCount = 0;
+    }
+
+    public byte tag(int row) {
+        Objects.checkIndex(row, size);
+        return tags[row];
+    }
+
+    public String color(int row) {
+        return dictionary.color(colorId(row));
+    }
+
+    public int colorId(int row) {
+        Objects.checkIndex(row, size);
+        return Short.toUnsignedInt(colorIds[row]);
+    }
+
+    public ColorDictionary dictionary() { return dictionary; }
+
+    // Export back to ordinary objects
+    public Shape get(int row) {
+        Objects.checkIndex(row, size);
+        int slot = slots[row];
+        String color = color(row);
+        return switch (tags[row]) {
+            case CIRCLE -> new Circle(color, radii[slot]);
+            case RECTANGLE -> new Rectangle(color, widths[slot], rectHeights[slot]);
+            default -> new Triangle(color, bases[slot], triangleHeights[slot]);
+        };
+    }
+
+    public List<Shape> toShapes() {
+        List<Shape> shapes = new ArrayList<>(size);
+        for (int row = 0; row < size; row++) {
+            shapes.add(get(row));
+        }
+        return shapes;
+    }
+
+    // Same formulas (and evaluation order) as calculateArea(), so results match bit-for-bit
+    public double area(int row) {
+        Objects.checkIndex(row, size);
+        int slot = slots[row];
+        return switch (tags[row]) {
+            case CIRCLE -> Math.PI * radii[slot] * radii[slot];
+            case RECTANGLE -> widths[slot] * rectHeights[slot];
+            default -> 0.5 * bases[slot] * triangleHeights[slot];
+        };
+    }
+
+    // Bulk: out[row] = area of row. Each type is one tight loop over its own columns.
+    public void areas(double[] out) {
+        checkOutput(out);
+        for (int i = 0; i < circleCount; i++) {
+            out[circleRows[i]] = Math.PI * radii[i] * radii[i];
+        }
+        for (int i = 0; i < rectangleCount; i++) {
+            out[rectangleRows[i]] = widths[i] * rectHeights[i];
+        }
+        for (int i = 0; i < triangleCount; i++) {
+            out[triangleRows[i]] = 0.5 * bases[i] * triangleHeights[i];
+        }
+    }
+
+    // Same formulas as calculatePerimeter() / calculateBounding*(), so results match bit-for-bit
+    public void perimeters(double[] out) {
+        checkOutput(out);
+        for (int i = 0; i < circleCount; i++) {
+            out[circleRows[i]] = 2 * Math.PI * radii[i];
+        }
+        for (int i = 0; i < rectangleCount; i++) {
+            out[rectangleRows[i]] = 2 * (widths[i] + rectHeights[i]);
+        }
+        for (int i = 0; i < triangleCount; i++) {
+            double b = bases[i], h = triangleHeights[i];
+            out[triangleRows[i]] = b + 2 * Math.sqrt(0.25 * b * b + h * h);
+        }
+    }
+
+    public void bounds(double[] widthsOut, double[] heightsOut) {
+        checkOutput(widthsOut);
+        checkOutput(heightsOut);
+        for (int i = 0; i < circleCount; i++) {
+            widthsOut[circleRows[i]] = 2 * radii[i];
+            heightsOut[circleRows[i]] = 2 * radii[i];
+        }
+        for (int i = 0; i < rectangleCount; i++) {
+            widthsOut[rectangleRows[i]] = widths[i];
+            heightsOut[rectangleRows[i]] = rectHeights[i];
+        }
+        for (int i = 0; i < triangleCount; i++) {
+            widthsOut[triangleRows[i]] = bases[i];
+            heightsOut[triangleRows[i]] = triangleHeights[i];
+        }
+    }
+
+    // Fused kernel (section 8): area, perimeter and bounds in one traversal,
+    // so every column element is loaded once instead of once per metric
+    public void metrics(double[] areasOut, double[] perimetersOut, double[] widthsOut, double[] heightsOut) {
+        checkOutput(areasOut);
+        checkOutput(perimetersOut);
+        checkOutput(widthsOut);
+        checkOutput(heightsOut);
+        for (int i = 0; i < circleCount; i++) {
+            double r = radii[i];
+            int row = circleRows[i];
+            areasOut[row] = Math.PI * r * r;
+            perimetersOut[row] = 2 * Math.PI * r;
+            widthsOut[row] = 2 * r;
+            heightsOut[row] = 2 * r;
+        }
+        for (int i = 0; i < rectangleCount; i++) {
+            double w = widths[i], h = rectHeights[i];
+            int row = rectangleRows[i];
+            areasOut[row] = w * h;
+            perimetersOut[row] = 2 * (w + h);
+            widthsOut[row] = w;
+            heightsOut[row] = h;
+        }
+        for (int i = 0; i < triangleCount; i++) {
+            double b = bases[i], h = triangleHeights[i];
+            int row = triangleRows[i];
+            areasOut[row] = 0.5 * b * h;
+            perimetersOut[row] = b + 2 * Math.sqrt(0.25 * b * b + h * h);
+            widthsOut[row] = b;
+            heightsOut[row] = h;
+        }
+    }
+
+    private void checkOutput(double[] out) {
+        if (out.length < size) {
+            throw new IllegalArgumentException("Output array too small: " + out.length + " < " + size);
+        }
+    }
+
+    public double totalArea() {
+        double total = 0.0;
+        for (int i = 0; i < circleCount; i++) {
+            total += Math.PI * radii[i] * radii[i];
+        }
+        for (int i = 0; i < rectangleCount; i++) {
+            total += widths[i] * rectHeights[i];
+        }
+        for (int i = 0; i < triangleCount; i++) {
+            total += 0.5 * bases[i] * triangleHeights[i];
+        }
+        return total;
+    }
+
+    // Bulk operations routed through a pluggable kernel (see section 2)
+    public void areas(double[] out, AreaKernel kernel) {
+        checkOutput(out);
+        double[] scratch = new double[Math.max(circleCount, Math.max(rectangleCount, triangleCount))];
+        kernel.circleAreas(radii, circleCount, scratch);
+        scatter(scratch, circleRows, circleCount, out);
+        kernel.rectangleAreas(widths, rectHeights, rectangleCount, scratch);
+        scatter(scratch, rectangleRows, rectangleCount, out);
+        kernel.triangleAreas(bases, triangleHeights, triangleCount, scratch);
+        scatter(scratch, triangleRows, triangleCount, out);
+    }
+
+    public double totalArea(AreaKernel kernel) {
+        return kernel.circleAreaSum(radii, circleCount)
+            + kernel.rectangleAreaSum(widths, rectHeights, rectangleCount)
+            + kernel.triangleAreaSum(bases, triangleHeights, triangleCount);
+    }
+
+    // Group by color on ids: plain array indexing, no String hashing per row
+    public double[] totalAreaByColor() {
+        double[] sums = new double[dictionary.size()];
+        for (int i = 0; i < circleCount; i++) {
+            sums[Short.toUnsignedInt(colorIds[circleRows[i]])] += Math.PI * radii[i] * radii[i];
+        }
+        for (int i = 0; i < rectangleCount; i++) {
+            sums[Short.toUnsignedInt(colorIds[rectangleRows[i]])] += widths[i] * rectHeights[i];
+        }
+        for (int i = 0; i < triangleCount; i++) {
+            sums[Short.toUnsignedInt(colorIds[triangleRows[i]])] += 0.5 * bases[i] * triangleHeights[i];
+        }
+        return sums;
+    }
+
+    public long[] countByColor() {
+        long[] counts = new long[dictionary.size()];
+        for (int row = 0; row < size; row++) {
+            counts[Short.toUnsignedInt(colorIds[row])]++;
+        }
+        return counts;
+    }
+
+    private static void scatter(double[] values, int[] rows, int count, double[] out) {
+        for (int i = 0; i < count; i++) {
+            out[rows[i]] = values[i];
+        }
+    }
+}
+
+// 2. PLUGGABLE BULK AREA KERNELS (Scalar fallback + optional SIMD)
+// Technique: interface + implementations selected once at startup
+//
+// Per-element results must be bit-for-bit identical to calculateArea(), so every
+// kernel evaluates the same products in the same order: (PI * r) * r, w * h and
+// (0.5 * b) * h. Sums are a different matter: a SIMD kernel keeps one partial sum
+// per lane, which reassociates the additions. The *Sum methods therefore only
+// promise the usual recursive-summation bound
+//     |computed - exact| <= (n - 1) * 2^-53 * sum(|area_i|)   (to first order)
+// which both the scalar and the lane-wise order satisfy.
+interface AreaKernel {
+    String name();
+
+    void circleAreas(double[] radii, int count, double[] out);
+    void rectangleAreas(double[] widths, double[] heights, int count, double[] out);
+    void triangleAreas(double[] bases, double[] heights, int count, double[] out);
+
+    double circleAreaSum(double[] radii, int count);
+    double rectangleAreaSum(double[] widths, double[] heights, int count);
+    double triangleAreaSum(double[] bases, double[] heights, int count);
+}
+
+final class ScalarAreaKernel implements AreaKernel {
+    static final ScalarAreaKernel INSTANCE = new ScalarAreaKernel();
+
+    private ScalarAreaKernel() {}
+
+    @Override
+    public String name() { return "scalar"; }
+
+    @Override
+    public void circleAreas(double[] radii, int count, double[] out) {
+        for (int i = 0; i < count; i++) {
+            out[i] = Math.PI * radii[i] * radii[i];
+        }
+    }
+
+    @Override
+    public void rectangleAreas(double[] widths, double[] heights, int count, double[] out) {
+        for (int i = 0; i < count; i++) {
+            out[i] = widths[i] * heights[i];
+        }
+    }
+
+    @Override
+    public void triangleAreas(double[] bases, double[] heights, int count, double[] out) {
+        for (int i = 0; i < count; i++) {
+            out[i] = 0.5 * bases[i] * heights[i];
+        }
+    }
+
+    @Override
+    public double circleAreaSum(double[] radii, int count) {
+        double sum = 0.0;
+        for (int i = 0; i < count; i++) {
+            sum += Math.PI * radii[i] * radii[i];
+        }
+        return sum;
+    }
+
+    @Override
+    public double rectangleAreaSum(double[] widths, double[] heights, int count) {
+        double sum = 0.0;
+        for (int i = 0; i < count; i++) {
+            sum += widths[i] * heights[i];
+        }
+        return sum;
+    }
+
+    @Override
+    public double triangleAreaSum(double[] bases, double[] heights, int count) {
+        double sum = 0.0;
+        for (int i = 0; i < count; i++) {
+            sum += 0.5 * bases[i] * heights[i];
+        }
+        return sum;
+    }
+}
+
+// Selects the kernel once. The Vector API lives in an incubator module, so the
+// SIMD kernel (java-shape-vector-api.java) is loaded reflectively and only when
+// the JVM was started with --add-modules jdk.incubator.vector.
+// Override with -Dshape.areaKernel=scalar|vector|auto (default auto).
+final class AreaKernels {
+    static final String VECTOR_KERNEL_CLASS = "VectorAreaKernel";
+    private static final AreaKernel SELECTED = select(System.getProperty("shape.areaKernel", "auto"));
+
+    private AreaKernels() {
+        throw new AssertionError("Utility class cannot be instantiated");
+    }
+
+    public static AreaKernel selected() {
+        return SELECTED;
+    }
+
+    public static AreaKernel scalar() {
+        return ScalarAreaKernel.INSTANCE;
+    }
+
+    static AreaKernel select(String mode) {
+        switch (mode) {
+            case "scalar":
+                return ScalarAreaKernel.INSTANCE;
+            case "vector": {
+                AreaKernel vector = loadVectorKernel();
+                if (vector == null) {
+                    throw new IllegalStateException("Vector kernel requested but jdk.incubator.vector is not available");
+                }
+                return vector;
+            }
+            case "auto": {
+                AreaKernel vector = loadVectorKernel();
+                return vector != null ? vector : ScalarAreaKernel.INSTANCE;
+            }
+            default:
+                throw new IllegalArgumentException("Unknown shape.areaKernel: " + mode);
+        }
+    }
+
+    private static AreaKernel loadVectorKernel() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            return null;
+        }
+        try {
+            return (AreaKernel) Class.forName(VECTOR_KERNEL_CLASS).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+}
+
+// 3. PARALLEL FORK/JOIN AGGREGATION WITH A CUSTOM SPLITERATOR
+// Technique: SIZED/SUBSIZED Spliterator + RecursiveTask reduction
+//
+// ShapeAreaStats is the mutable accumulator: sum, min, max and count per concrete
+// subtype, filled in a single pass. Subclasses of the non-sealed Triangle are
+// counted as triangles because they are reached through the same calculateArea().
+class ShapeAreaStats {
+    private final long[] counts = new long[3];
+    private final double[] sums = new double[3];
+    private final double[] mins = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY};
+    private final double[] maxs = {Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+
+    public void accept(Shape shape) {
+        int kind = kindOf(shape);
+        double area = shape.calculateArea();
+        counts[kind]++;
+        sums[kind] += area;
+        mins[kind] = Math.min(mins[kind], area);
+        maxs[kind] = Math.max(maxs[kind], area);
+    }
+
+    public ShapeAreaStats combine(ShapeAreaStats other) {
+        for (int kind = 0; kind < 3; kind++) {
+            counts[kind] += other.counts[kind];
+            sums[kind] += other.sums[kind];
+            mins[kind] = Math.min(mins[kind], other.mins[kind]);
+            maxs[kind] = Math.max(maxs[kind], other.maxs[kind]);
+        }
+        return this;
+    }
+
+    static int kindOf(Shape shape) {
+        if (shape instanceof Circle) {
+            return ShapeColumns.CIRCLE;
+        } else if (shape instanceof Rectangle) {
+            return ShapeColumns.RECTANGLE;
+        }
+        return ShapeColumns.TRIANGLE;
+    }
+
+    public long count(byte kind) { return counts[kind]; }
+    public double sum(byte kind) { return sums[kind]; }
+    public double min(byte kind) { return mins[kind]; }
+    public double max(byte kind) { return maxs[kind]; }
+
+    public long totalCount() {
+        return counts[0] + counts[1] + counts[2];
+    }
+
+    public double totalArea() {
+        return sums[0] + sums[1] + sums[2];
+    }
+
+    @Override
+    public String toString() {
+        return "ShapeAreaStats{circles=" + counts[ShapeColumns.CIRCLE]
+            + ", rectangles=" + counts[ShapeColumns.RECTANGLE]
+            + ", triangles=" + counts[ShapeColumns.TRIANGLE]
+            + ", totalArea=" + totalArea() + '}';
+    }
+}
+
+// Splits a random-access list by index range, so every split knows its exact size
+// (SIZED | SUBSIZED) and the fork/join tree stays balanced.
+class ShapeSpliterator implements Spliterator<Shape> {
+    private final List<? extends Shape> shapes;
+    private int index;
+    private final int fence;
+
+    public ShapeSpliterator(List<? extends Shape> shapes) {
+        this(shapes, 0, shapes.size());
+    }
+
+    private ShapeSpliterator(List<? extends Shape> shapes, int origin, int fence) {
+        this.shapes = shapes;
+        this.index = origin;
+        this.fence = fence;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Shape> action) {
+        if (index < fence) {
+            action.accept(shapes.get(index++));
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super Shape> action) {
+        for (int i = index; i < fence; i++) {
+            action.accept(shapes.get(i));
+        }
+        index = fence;
+    }
+
+    @Override
+    public Spliterator<Shape> trySplit() {
+        int mid = (index + fence) >>> 1;
+        if (mid <= index) {
+            return null;
+        }
+        Spliterator<Shape> prefix = new ShapeSpliterator(shapes, index, mid);
+        index = mid;
+        return prefix;
+    }
+
+    @Override
+    public long estimateSize() {
+        return fence - index;
+    }
+
+    @Override
+    public int characteristics() {
+        // The caller's list may hold nulls or change, so no NONNULL or IMMUTABLE
+        return ORDERED | SIZED | SUBSIZED;
+    }
+}
+
+// Fork/join reduction over ShapeSpliterator. Inputs at or below the threshold
+// are aggregated on the calling thread, avoiding fork overhead on small batches.
+class ShapeAggregator {
+    static final int DEFAULT_THRESHOLD = 10_000;
+
+    private final int threshold;
+    private final ForkJoinPool pool;
+
+    public ShapeAggregator() {
+        this(DEFAULT_THRESHOLD, ForkJoinPool.commonPool());
+    }
+
+    public ShapeAggregator(int threshold, ForkJoinPool pool) {
+        if (threshold < 1) {
+            throw new IllegalArgumentException("Threshold must be positive");
+        }
+        this.threshold = threshold;
+        this.pool = Objects.requireNonNull(pool);
+    }
+
+    public ShapeAreaStats aggregate(List<? extends Shape> shapes) {
+        if (!(shapes instanceof RandomAccess)) {
+            shapes = new ArrayList<>(shapes);
+        }
+        Spliterator<Shape> spliterator = new ShapeSpliterator(shapes);
+        if (shapes.size() <= threshold) {
+            return sequential(spliterator);
+        }
+        return pool.invoke(new AggregateTask(spliterator, threshold));
+    }
+
+    private static ShapeAreaStats sequential(Spliterator<Shape> spliterator) {
+        ShapeAreaStats stats = new ShapeAreaStats();
+        spliterator.forEachRemaining(stats::accept);
+        return stats;
+    }
+
+    private static class AggregateTask extends RecursiveTask<ShapeAreaStats> {
+        private static final long serialVersionUID = 1L;
+
+        private final transient Spliterator<Shape> spliterator;
+        private final int threshold;
+
+        AggregateTask(Spliterator<Shape> spliterator, int threshold) {
+            this.spliterator = spliterator;
+            this.threshold = threshold;
+        }
+
+        @Override
+        protected ShapeAreaStats compute() {
+            if (spliterator.estimateSize() > threshold) {
+                Spliterator<Shape> prefix = spliterator.trySplit();
+                if (prefix != null) {
+                    AggregateTask left = new AggregateTask(prefix, threshold);
+                    left.fork();
+                    ShapeAreaStats right = new AggregateTask(spliterator, threshold).compute();
+                    return left.join().combine(right);
+                }
+            }
+            return sequential(spliterator);
+        }
+    }
+}
+
+// 4. DETERMINISTIC PARALLEL SUM
+// Technique: fixed-size blocks + compensated (Neumaier) summation + ordered fold
+//
+// Double addition is not associative, so a fork/join sum depends on how the work
+// was split. Here the input is cut into blocks whose boundaries depend only on
+// blockSize, each block is summed left to right with Neumaier compensation, and
+// the per-block results are folded in block order. Threads only decide *who*
+// sums a block, never *which* elements are added together, so the result is
+// bit-for-bit reproducible for any pool size or split order.
+class DeterministicAreaSum {
+    static final int DEFAULT_BLOCK_SIZE = 4096;
+
+    private final int blockSize;
+    private final ForkJoinPool pool;
+
+    public DeterministicAreaSum() {
+        this(DEFAULT_BLOCK_SIZE, ForkJoinPool.commonPool());
+    }
+
+    public DeterministicAreaSum(int blockSize, ForkJoinPool pool) {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("Block size must be positive");
+        }
+        this.blockSize = blockSize;
+        this.pool = Objects.requireNonNull(pool);
+    }
+
+    public double sum(List<? extends Shape> shapes) {
+        if (!(shapes instanceof RandomAccess)) {
+            shapes = new ArrayList<>(shapes);
+        }
+        List<? extends Shape> input = shapes;
+        return reduce(input.size(), (from, to, out, block) -> {
+            double sum = 0.0, compensation = 0.0;
+            for (int i = from; i < to; i++) {
+                double area = input.get(i).calculateArea();
+                double t = sum + area;
+                compensation += Math.abs(sum) >= Math.abs(area) ? (sum - t) + area : (area - t) + sum;
+                sum = t;
+            }
+            out[2 * block] = sum;
+            out[2 * block + 1] = compensation;
+        });
+    }
+
+    // Same reduction over precomputed areas, e.g. from ShapeColumns.areas(double[])
+    public double sum(double[] areas, int count) {
+        return reduce(count, (from, to, out, block) -> {
+            double sum = 0.0, compensation = 0.0;
+            for (int i = from; i < to; i++) {
+                double area = areas[i];
+                double t = sum + area;
+                compensation += Math.abs(sum) >= Math.abs(area) ? (sum - t) + area : (area - t) + sum;
+                sum = t;
+            }
+            out[2 * block] = sum;
+            out[2 * block + 1] = compensation;
+        });
+    }
+
+    @FunctionalInterface
+    private interface BlockSummer {
+        // Writes (sum, compensation) of [from, to) to out[2 * block], out[2 * block + 1]
+        void sumBlock(int from, int to, double[] out, int block);
+    }
+
+    private double reduce(int size, BlockSummer summer) {
+        if (size == 0) {
+            return 0.0;
+        }
+        int blocks = (int) (((long) size + blockSize - 1) / blockSize);
+        double[] partials = new double[2 * blocks];
+        if (blocks <= 1) {
+            summer.sumBlock(0, size, partials, 0);
+        } else {
+            pool.invoke(new BlockTask(summer, size, blockSize, 0, blocks, partials));
+        }
+        // Ordered Neumaier fold of the block results
+        double sum = 0.0, compensation = 0.0;
+        for (double value : partials) {
+            double t = sum + value;
+            compensation += Math.abs(sum) >= Math.abs(value) ? (sum - t) + value : (value - t) + sum;
+            sum = t;
+        }
+        return sum + compensation;
+    }
+
+    private static class BlockTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final transient BlockSummer summer;
+        private final int size, blockSize, fromBlock, toBlock;
+        private final double[] partials;
+
+        BlockTask(BlockSummer summer, int size, int blockSize, int fromBlock, int toBlock, double[] partials) {
+            this.summer = summer;
+            this.size = size;
+            this.blockSize = blockSize;
+            this.fromBlock = fromBlock;
+            this.toBlock = toBlock;
+            this.partials = partials;
+        }
+
+        @Override
+        protected void compute() {
+            if (toBlock - fromBlock > 1) {
+                int mid = (fromBlock + toBlock) >>> 1;
+                invokeAll(new BlockTask(summer, size, blockSize, fromBlock, mid, partials),
+                          new BlockTask(summer, size, blockSize, mid, toBlock, partials));
+                return;
+            }
+            int from = fromBlock * blockSize;
+            summer.sumBlock(from, Math.min(from + blockSize, size), partials, fromBlock);
+        }
+    }
+}
+
+// Compares the deterministic sum with naive parallel sums and shows that only
+// the deterministic one is stable across pool sizes. Needs java-benchmark-utils.java.
+class DeterministicSumBenchmark {
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        List<Shape> shapes = ShapeWorkloads.mixed(n, 42);
+
+        // An empty batch is valid input and sums to zero
+        DeterministicAreaSum empty = new DeterministicAreaSum();
+        if (empty.sum(List.of()) != 0.0 || empty.sum(new double[0], 0) != 0.0) {
+            throw new AssertionError("Empty input must sum to 0.0");
+        }
+
+        // Split granularity changes the naive result; it never changes the deterministic one
+        int[] threadCounts = {1, 2, Runtime.getRuntime().availableProcessors()};
+        int[] splitThresholds = {1_000, 7_919, 100_000};
+        for (int run = 0; run < threadCounts.length; run++) {
+            ForkJoinPool pool = new ForkJoinPool(threadCounts[run]);
+            double naive = new ShapeAggregator(splitThresholds[run], pool).aggregate(shapes).totalArea();
+            double deterministic = new DeterministicAreaSum(DeterministicAreaSum.DEFAULT_BLOCK_SIZE, pool).sum(shapes);
+            System.out.printf("threads=%-3d split=%-7d naive=%s deterministic=%s%n", threadCounts[run],
+                splitThresholds[run], Double.toHexString(naive), Double.toHexString(deterministic));
+            pool.shutdown();
+        }
+
+        DeterministicAreaSum deterministic = new DeterministicAreaSum();
+        ShapeAggregator aggregator = new ShapeAggregator();
+        MicroBench.measure("parallelStream().sum() (naive)", 5, 20,
+            () -> shapes.parallelStream().mapToDouble(Shape::calculateArea).reduce(0.0, Double::sum));
+        MicroBench.measure("ShapeAggregator totalArea (naive)", 5, 20,
+            () -> aggregator.aggregate(shapes).totalArea());
+        MicroBench.measure("DeterministicAreaSum", 5, 20,
+            () -> deterministic.sum(shapes));
+    }
+}
+
+// Synthetic inputs shared by the benchmarks in this file
+final class ShapeWorkloads {
+    private ShapeWorkloads() {
+        throw new AssertionError("Utility class cannot be instantiated");
+    }
+
+    // Randomly interleaved circles, rectangles and triangles
+    public static List<Shape> mixed(int n, long seed) {
+        Random random = new Random(seed);
+        String[] colors = {"Red", "Green", "Blue", "Yellow", "Black"};
+        List<Shape> shapes = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            String color = colors[random.nextInt(colors.length)];
+            switch (random.nextInt(3)) {
+                case 0 -> shapes.add(new Circle(color, random.nextDouble() * 10));
+                case 1 -> shapes.add(new Rectangle(color, random.nextDouble() * 10, random.nextDouble() * 10));
+                default -> shapes.add(new Triangle(color, random.nextDouble() * 10, random.nextDouble() * 10));
+            }
+        }
+        return shapes;
+    }
+}
+
+// 5. TAG DISPATCH FOR THE SEALED HIERARCHY
+// Technique: exhaustive pattern-matching switch (Java 21+), byte tags + tableswitch,
+//            and type-sorted batches
+//
+// A loop calling shape.calculateArea() over a mixed list sees three receiver
+// classes, so C2 treats the call site as megamorphic and emits a vtable call
+// without inlining. Three alternatives:
+//   - areaBySwitch: the sealed hierarchy makes a pattern switch exhaustive, and
+//     each arm is a type check plus an inlinable final-class body.
+//   - areaByTag:    tags computed once per batch; a dense int switch compiles to
+//     a jump table and each arm casts to a final class.
+//   - sortedBatch:  rows grouped by concrete class first, so every call site only
+//     ever sees a single receiver type and stays monomorphic.
+// Subclasses of the non-sealed Triangle may override calculateArea(), so they
+// are tagged VIRTUAL and always go through the ordinary virtual call.
+final class ShapeDispatch {
+    static final byte CIRCLE = ShapeColumns.CIRCLE;
+    static final byte RECTANGLE = ShapeColumns.RECTANGLE;
+    static final byte TRIANGLE = ShapeColumns.TRIANGLE;
+    static final byte VIRTUAL = 3;
+
+    private ShapeDispatch() {
+        throw new AssertionError("Utility class cannot be instantiated");
+    }
+
+    public static byte tagOf(Shape shape) {
+        Class<?> type = shape.getClass();
+        if (type == Circle.class) {
+            return CIRCLE;
+        } else if (type == Rectangle.class) {
+            return RECTANGLE;
+        } else if (type == Triangle.class) {
+            return TRIANGLE;
+        }
+        return VIRTUAL;
+    }
+
+    public static byte[] tags(List<? extends Shape> shapes) {
+        byte[] tags = new byte[shapes.size()];
+        for (int i = 0; i < tags.length; i++) {
+            tags[i] = tagOf(shapes.get(i));
+        }
+        return tags;
+    }
+
+    public static double areaBySwitch(Shape shape) {
+        return switch (shape) {
+            case Circle c -> c.calculateArea();
+            case Rectangle r -> r.calculateArea();
+            case Triangle t -> t.calculateArea();
+        };
+    }
+
+    public static double areaByTag(Shape shape, byte tag) {
+        return switch (tag) {
+            case CIRCLE -> ((Circle) shape).calculateArea();
+            case RECTANGLE -> ((Rectangle) shape).calculateArea();
+            case TRIANGLE -> ((Triangle) shape).calculateArea();
+            default -> shape.calculateArea();
+        };
+    }
+
+    public static double totalAreaVirtual(List<? extends Shape> shapes) {
+        double total = 0.0;
+        for (int i = 0, n = shapes.size(); i < n; i++) {
+            total += shapes.get(i).calculateArea();
+        }
+        return total;
+    }
+
+    public static double totalAreaBySwitch(List<? extends Shape> shapes) {
+        double total = 0.0;
+        for (int i = 0, n = shapes.size(); i < n; i++) {
+            total += areaBySwitch(shapes.get(i));
+        }
+        return total;
+    }
+
+    public static double totalAreaByTag(List<? extends Shape> shapes, byte[] tags) {
+        double total = 0.0;
+        for (int i = 0, n = shapes.size(); i < n; i++) {
+            total += areaByTag(shapes.get(i), tags[i]);
+        }
+        return total;
+    }
+
+    // Type-sorted batch: row indices grouped by tag with a counting sort
+    static final class SortedBatch {
+        private final List<? extends Shape> shapes;
+        private final int[] order;
+        private final int[] starts = new int[5];
+
+        SortedBatch(List<? extends Shape> shapes, byte[] tags) {
+            this.shapes = shapes;
+            this.order = new int[tags.length];
+            for (byte tag : tags) {
+                starts[tag + 1]++;
+            }
+            for (int tag = 0; tag < 4; tag++) {
+                starts[tag + 1] += starts[tag];
+            }
+            int[] next = Arrays.copyOf(starts, 4);
+            for (int row = 0; row < tags.length; row++) {
+                order[next[tags[row]]++] = row;
+            }
+        }
+
+        public static SortedBatch of(List<? extends Shape> shapes) {
+            return new SortedBatch(shapes, tags(shapes));
+        }
+
+        // out[row] = area of row; one single-type loop per group
+        public void areas(double[] out) {
+            for (int i = starts[CIRCLE]; i < starts[CIRCLE + 1]; i++) {
+                out[order[i]] = ((Circle) shapes.get(order[i])).calculateArea();
+            }
+            for (int i = starts[RECTANGLE]; i < starts[RECTANGLE + 1]; i++) {
+                out[order[i]] = ((Rectangle) shapes.get(order[i])).calculateArea();
+            }
+            for (int i = starts[TRIANGLE]; i < starts[TRIANGLE + 1]; i++) {
+                out[order[i]] = ((Triangle) shapes.get(order[i])).calculateArea();
+            }
+            for (int i = starts[VIRTUAL]; i < starts[VIRTUAL + 1]; i++) {
+                out[order[i]] = shapes.get(order[i]).calculateArea();
+            }
+        }
+
+        public double totalArea() {
+            double total = 0.0;
+            for (int i = starts[CIRCLE]; i < starts[CIRCLE + 1]; i++) {
+                total += ((Circle) shapes.get(order[i])).calculateArea();
+            }
+            for (int i = starts[RECTANGLE]; i < starts[RECTANGLE + 1]; i++) {
+                total += ((Rectangle) shapes.get(order[i])).calculateArea();
+            }
+            for (int i = starts[TRIANGLE]; i < starts[TRIANGLE + 1]; i++) {
+                total += ((Triangle) shapes.get(order[i])).calculateArea();
+            }
+            for (int i = starts[VIRTUAL]; i < starts[VIRTUAL + 1]; i++) {
+                total += shapes.get(order[i]).calculateArea();
+            }
+            return total;
+        }
+    }
+}
+
+// Virtual call vs pattern switch vs tag switch vs sorted batch on a randomly
+// interleaved (worst case for the type profile) workload.
+class ShapeDispatchBenchmark {
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        List<Shape> shapes = ShapeWorkloads.mixed(n, 7);
+        byte[] tags = ShapeDispatch.tags(shapes);
+        ShapeDispatch.SortedBatch batch = ShapeDispatch.SortedBatch.of(shapes);
+
+        MicroBench.measure("virtual calculateArea()", 10, 30, () -> ShapeDispatch.totalAreaVirtual(shapes));
+        MicroBench.measure("pattern-matching switch", 10, 30, () -> ShapeDispatch.totalAreaBySwitch(shapes));
+        MicroBench.measure("byte tag switch", 10, 30, () -> ShapeDispatch.totalAreaByTag(shapes, tags));
+        MicroBench.measure("type-sorted batch", 10, 30, batch::totalArea);
+        MicroBench.measure("type-sorted batch (incl. sort)", 10, 30,
+            () -> ShapeDispatch.SortedBatch.of(shapes).totalArea());
+    }
+}
+
+// 6. COLOR DICTIONARY ENCODING
+// Technique: dictionary encoding (String <-> dense id) + interning factory
+//
+// A few dozen distinct colors spread over millions of shapes means millions of
+// equal String objects when colors come from parsing. ColorDictionary hands out
+// dense ids (at most 65536, so they fit an unsigned short column) and a single
+// canonical String per color. ShapeFactory builds shapes through it, so equal
+// colors share one String instance, and ShapeColumns stores the ids so that
+// group-by-color is array indexing instead of hashing.
+final class ColorDictionary {
+    static final int MAX_COLORS = 1 << 16;
+
+    private static final ColorDictionary SHARED = new ColorDictionary();
+
+    private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+    // Copy-on-write id -> color table, so color(id) never takes a lock
+    private volatile String[] colors = new String[0];
+
+    public static ColorDictionary shared() {
+        return SHARED;
+    }
+
+    public int idOf(String color) {
+        Objects.requireNonNull(color, "color");
+        Integer id = ids.get(color);
+        return id != null ? id : register(color);
+    }
+
+    // Id of an already registered color, or -1; never registers, so it is safe for read-only queries
+    public int lookup(String color) {
+        Integer id = ids.get(Objects.requireNonNull(color, "color"));
+        return id != null ? id : -1;
+    }
+
+    private synchronized int register(String color) {
+        Integer existing = ids.get(color);
+        if (existing != null) {
+            return existing;
+        }
+        String[] current = colors;
+        if (current.length == MAX_COLORS) {
+            throw new IllegalStateException("Color dictionary is full (" + MAX_COLORS + " colors)");
+        }
+        String[] next = Arrays.copyOf(current, current.length + 1);
+        next[current.length] = color;
+        colors = next;
+        ids.put(color, current.length);
+        return current.length;
+    }
+
+    public String color(int id) {
+        String[] current = colors;
+        Objects.checkIndex(id, current.length);
+        return current[id];
+    }
+
+    // Canonical instance for this color
+    public String intern(String color) {
+        return color(idOf(color));
+    }
+
+    public int size() {
+        return colors.length;
+    }
+}
+
+// Constructs shapes with dictionary-interned colors
+final class ShapeFactory {
+    private ShapeFactory() {
+        throw new AssertionError("Utility class cannot be instantiated");
+    }
+
+    public static Circle circle(String color, double radius) {
+        return new Circle(ColorDictionary.shared().intern(color), radius);
+    }
+
+    public static Rectangle rectangle(String color, double width, double height) {
+        return new Rectangle(ColorDictionary.shared().intern(color), width, height);
+    }
+
+    public static Triangle triangle(String color, double base, double height) {
+        return new Triangle(ColorDictionary.shared().intern(color), base, height);
+    }
+}
+
+// Heap footprint of parsed (distinct String per row) vs interned colors, and
+// HashMap<String, Double> group-by vs id-indexed group-by on ShapeColumns.
+class ColorDictionaryBenchmark {
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        String[] palette = new String[40];
+        for (int i = 0; i < palette.length; i++) {
+            palette[i] = "color-" + i;
+        }
+
+        long before = MicroBench.usedHeapBytes();
+        List<Shape> parsed = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            // new String(...) simulates a color freshly decoded from input
+            parsed.add(new Circle(new String(palette[i % palette.length]), i));
+        }
+        long parsedBytes = MicroBench.usedHeapBytes() - before;
+
+        before = MicroBench.usedHeapBytes();
+        List<Shape> interned = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            interned.add(ShapeFactory.circle(new String(palette[i % palette.length]), i));
+        }
+        long internedBytes = MicroBench.usedHeapBytes() - before;
+        System.out.printf("Heap for %,d shapes: parsed %,d bytes, interned %,d bytes (%.1f%% saved)%n",
+            n, parsedBytes, internedBytes, 100.0 * (parsedBytes - internedBytes) / parsedBytes);
+
+        ShapeColumns columns = ShapeColumns.of(interned);
+        MicroBench.measure("group-by HashMap<String, Double>", 5, 20, () -> {
+            Map<String, Double> sums = new HashMap<>();
+            for (Shape shape : parsed) {
+                sums.merge(shape.getColor(), shape.calculateArea(), Double::sum);
+            }
+            return sums.size();
+        });
+        MicroBench.measure("group-by color id (ShapeColumns)", 5, 20,
+            () -> columns.totalAreaByColor().length);
+        // Keep both lists reachable until the end of the measurements
+        System.out.println("Rows: " + parsed.size() + " / " + interned.size());
+    }
+}
+
+// 7. HASH-CONSING (Canonical Shape Instances)
+// Technique: concurrent table of weak references keyed by value equality
+//
+// canonicalize(shape) returns the one shared instance equal to shape (same
+// subtype, color and dimensions; see equals() on Circle/Rectangle/Triangle),
+// registering shape itself if none exists yet. The table only holds weak
+// references, so a canonical instance nobody else uses can be collected;
+// its stale entry is purged the next time the table is touched.
+// Canonical instances are shared, so only hash-cons shapes you treat as
+// immutable values, and never rely on their identity for locking.
+final class CanonicalShapes {
+    private static final ConcurrentHashMap<WeakKey, WeakKey> TABLE = new ConcurrentHashMap<>();
+    private static final ReferenceQueue<Shape> STALE = new ReferenceQueue<>();
+
+    private CanonicalShapes() {
+        throw new AssertionError("Utility class cannot be instantiated");
+    }
+
+    public static <S extends Shape> S canonicalize(S shape) {
+        Objects.requireNonNull(shape);
+        purge();
+        WeakKey probe = new WeakKey(shape, null);
+        while (true) {
+            WeakKey existing = TABLE.get(probe);
+            if (existing == null) {
+                WeakKey key = new WeakKey(shape, STALE);
+                existing = TABLE.putIfAbsent(key, key);
+                if (existing == null) {
+                    return shape;
+                }
+            }
+            Shape canonical = existing.get();
+            if (canonical != null) {
+                @SuppressWarnings("unchecked") // equals() guarantees the same concrete class
+                S same = (S) canonical;
+                return same;
+            }
+            // Collected between lookup and get(): drop the entry and retry
+            TABLE.remove(existing, existing);
+        }
+    }
+
+    // Factory methods: interned color + canonical instance
+    public static Circle circle(String color, double radius) {
+        return canonicalize(ShapeFactory.circle(color, radius));
+    }
+
+    public static Rectangle rectangle(String color, double width, double height) {
+        return canonicalize(ShapeFactory.rectangle(color, width, height));
+    }
+
+    public static Triangle triangle(String color, double base, double height) {
+        return canonicalize(ShapeFactory.triangle(color, base, height));
+    }
+
+    // Live entries (approximate under concurrency)
+    public static int size() {
+        purge();
+        return TABLE.size();
+    }
+
+    private static void purge() {
+        Reference<? extends Shape> stale;
+        while ((stale = STALE.poll()) != null) {
+            TABLE.remove(stale, stale);
+        }
+    }
+
+    // Equal to another key while both referents are alive and equal; a cleared
+    // key is only equal to itself, so it can still be removed by identity.
+    private static final class WeakKey extends WeakReference<Shape> {
+        private final int hash;
+
+        WeakKey(Shape shape, ReferenceQueue<Shape> queue) {
+            super(shape, queue);
+            this.hash = shape.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) return true;
+            if (!(obj instanceof WeakKey other) || hash != other.hash) return false;
+            Shape shape = get();
+            return shape != null && shape.equals(other.get());
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
+
+// 8. FUSED MULTI-METRIC KERNEL
+// Technique: loop fusion - one traversal computing every metric per element
+//
+// ShapeColumns.metrics(...) produces area, perimeter and bounding-box extents
+// in one pass over each type's columns, writing into caller-provided arrays.
+// Three separate passes (areas, perimeters, bounds) stream the same input
+// columns from memory three times; fused, they are read once while still in
+// registers. The benchmark compares the two on the same store.
+class FusedMetricsBenchmark {
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 4_000_000;
+        List<Shape> shapes = ShapeWorkloads.mixed(n, 21);
+        ShapeColumns columns = ShapeColumns.of(shapes);
+        double[] areas = new double[n];
+        double[] perimeters = new double[n];
+        double[] widths = new double[n];
+        double[] heights = new double[n];
+
+        columns.metrics(areas, perimeters, widths, heights);
+        for (int i = 0; i < n; i++) {
+            Shape shape = shapes.get(i);
+            if (areas[i] != shape.calculateArea() || perimeters[i] != shape.calculatePerimeter()
+                    || widths[i] != shape.calculateBoundingWidth() || heights[i] != shape.calculateBoundingHeight()) {
+                throw new AssertionError("Mismatch at row " + i);
+            }
+        }
+
+        MicroBench.measure("separate passes (areas, perimeters, bounds)", 5, 20, () -> {
+            columns.areas(areas);
+            columns.perimeters(perimeters);
+            columns.bounds(widths, heights);
+            return areas[0] + perimeters[0] + widths[0];
+        });
+        MicroBench.measure("fused metrics", 5, 20, () -> {
+            columns.metrics(areas, perimeters, widths, heights);
+            return areas[0] + perimeters[0] + widths[0];
+        });
+    }
+}
+
+// 9. FLOAT32 COMPACT MODE
+// Technique: store float, compute in double
+//
+// CompactShapeColumns is the opt-in, compact sibling of ShapeColumns: one row
+// per shape with two float dimension columns, a tag column and ColorDictionary
+// ids. A circle stores its radius in both columns, so every area is the
+// branch-free SCALE[tag] * a * b, which evaluates exactly like calculateArea()
+// ((PI * r) * r, w * h, (0.5 * b) * h) on the widened values. Dimensions are
+// rounded to the nearest float when stored and widened back to double before
+// any arithmetic, so all results are still doubles.
+//
+// Precision: a float keeps 24 significand bits, so each stored dimension has
+// relative error <= 2^-24 (about 6e-8); any value with at most 6 significant
+// decimal digits round-trips through float exactly as written. An area is a
+// product of two stored dimensions, so it carries a relative error of at most
+// about 2 * 2^-24 (1.2e-7) versus calculateArea() on the original doubles.
+// Values beyond Float.MAX_VALUE are rejected; values below Float.MIN_NORMAL
+// (about 1.2e-38) lose precision gradually as subnormals.
+// For the off-heap variant see OffHeapShapeStore.Precision.FLOAT.
+class CompactShapeColumns {
+    // Indexed by ShapeColumns tag; (1.0 * w) * h is bit-identical to w * h
+    private static final double[] SCALE = {Math.PI, 1.0, 0.5};
+
+    private byte[] tags;
+    private short[] colorIds;
+    private float[] first, second;
+    private int size;
+    private final ColorDictionary dictionary;
+
+    public CompactShapeColumns() {
+        this(16);
+    }
+
+    public CompactShapeColumns(int initialCapacity) {
+        this.dictionary = ColorDictionary.shared();
+        int capacity = Math.max(initialCapacity, 1);
+        tags = new byte[capacity];
+        colorIds = new short[capacity];
+        first = new float[capacity];
+        second = new float[capacity];
+    }
+
+    public static CompactShapeColumns of(Collection<? extends Shape> shapes) {
+        CompactShapeColumns columns = new CompactShapeColumns(shapes.size());
+        for (Shape shape : shapes) {
+            columns.add(shape);
+        }
+        return columns;
+    }
+
+    public int add(Shape shape) {
+        if (shape instanceof Circle c) {
+            return addRow(ShapeColumns.CIRCLE, c.getColor(), c.getRadius(), c.getRadius());
+        } else if (shape instanceof Rectangle r) {
+            return addRow(ShapeColumns.RECTANGLE, r.getColor(), r.getWidth(), r.getHeight());
+        } else if (shape instanceof Triangle t && t.getClass() == Triangle.class) {
+            return addRow(ShapeColumns.TRIANGLE, t.getColor(), t.getBase(), t.getHeight());
+        }
+        throw new IllegalArgumentException("Unsupported shape type: " + shape.getClass().getName());
+    }
+
+    private int addRow(byte tag, String color, double a, double b) {
+        if (size == tags.length) {
+            int capacity = size * 2;
+            tags = Arrays.copyOf(tags, capacity);
+            colorIds = Arrays.copyOf(colorIds, capacity);
+            first = Arrays.copyOf(first, capacity);
+            second = Arrays.copyOf(second, capacity);
+        }
+        tags[size] = tag;
+        colorIds[size] = (short) dictionary.idOf(color);
+        first[size] = toFloat(a);
+        second[size] = toFloat(b);
+        return size++;
+    }
+
+    static float toFloat(double value) {
+        float narrowed = (float) value;
+        if (Float.isInfinite(narrowed) && !Double.isInfinite(value)) {
+            throw new IllegalArgumentException("Dimension out of float range: " + value);
+        }
+        return narrowed;
+    }
+
+    public int size() { return size; }
+
+    public String color(int row) {
+        Objects.checkIndex(row, size);
+        return dictionary.color(Short.toUnsignedInt(colorIds[row]));
+    }
+
+    public double area(int row) {
+        Objects.checkIndex(row, size);
+        return SCALE[tags[row]] * first[row] * second[row];
+    }
+
+    public void areas(double[] out) {
+        if (out.length < size) {
+            throw new IllegalArgumentException("Output array too small: " + out.length + " < " + size);
+        }
+        for (int row = 0; row < size; row++) {
+            out[row] = SCALE[tags[row]] * first[row] * second[row];
+        }
+    }
+
+    public double totalArea() {
+        double total = 0.0;
+        for (int row = 0; row < size; row++) {
+            total += SCALE[tags[row]] * first[row] * second[row];
+        }
+        return total;
+    }
+
+    // Widened back to double; equal to the original only when it was float-representable
+    public Shape get(int row) {
+        String color = color(row);
+        return switch (tags[row]) {
+            case ShapeColumns.CIRCLE -> new Circle(color, first[row]);
+            case ShapeColumns.RECTANGLE -> new Rectangle(color, first[row], second[row]);
+            default -> new Triangle(color, first[row], second[row]);
+        };
+    }
+}
+
+// Footprint and bulk-scan time of double columns vs float columns, plus the
+// largest observed relative area error.
+class CompactModeBenchmark {
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 4_000_000;
+        List<Shape> shapes = ShapeWorkloads.mixed(n, 31);
+
+        long before = MicroBench.usedHeapBytes();
+        ShapeColumns full = ShapeColumns.of(shapes);
+        long fullBytes = MicroBench.usedHeapBytes() - before;
+        before = MicroBench.usedHeapBytes();
+        CompactShapeColumns compact = CompactShapeColumns.of(shapes);
+        long compactBytes = MicroBench.usedHeapBytes() - before;
+        System.out.printf("Heap: ShapeColumns %,d bytes, CompactShapeColumns %,d bytes (%.0f%%)%n",
+            fullBytes, compactBytes, 100.0 * compactBytes / fullBytes);
+
+        double worst = 0;
+        for (int row = 0; row < n; row++) {
+            double exact = shapes.get(row).calculateArea();
+            if (exact != 0) {
+                worst = Math.max(worst, Math.abs(compact.area(row) - exact) / exact);
+            }
+        }
+        System.out.printf("Largest relative area error: %.3e%n", worst);
+
+        MicroBench.measure("ShapeColumns.totalArea (double)", 10, 30, full::totalArea);
+        MicroBench.measure("CompactShapeColumns.totalArea (float)", 10, 30, compact::totalArea);
+    }
+}
+
+// DEMONSTRATION CLASS
+class ShapePerformanceDemo {
+    public static void main(String[] args) {
+        System.out.println("=== SHAPE PERFORMANCE PATTERNS ===\n");
+
+        List<Shape> shapes = List.of(
+            new Circle("Red", 5.0),
+            new Rectangle("Blue", 4.0, 6.0),
+            new Triangle("Green", 3.0, 8.0));
+
+        // 1. Columnar store
+        ShapeColumns columns = ShapeColumns.of(shapes);
+        double[] areas = new double[columns.size()];
+        columns.areas(areas);
+        System.out.println("Columnar areas: " + Arrays.toString(areas));
+        System.out.println("Columnar total area: " + columns.totalArea());
+        System.out.println("Round trip row 0 area: " + columns.get(0).calculateArea());
+
+        // 2. Bulk area kernels
+        AreaKernel kernel = AreaKernels.selected();
+        System.out.println("Selected area kernel: " + kernel.name());
+        System.out.println("Kernel total area: " + columns.totalArea(kernel));
+
+        // 3. Fork/join aggregation
+        ShapeAreaStats stats = new ShapeAggregator().aggregate(shapes);
+        System.out.println("Aggregated: " + stats);
+        System.out.println("Largest circle area: " + stats.max(ShapeColumns.CIRCLE));
+
+        // 4. Deterministic parallel sum
+        System.out.println("Deterministic total area: " + new DeterministicAreaSum().sum(shapes));
+
+        // 5. Tag dispatch
+        System.out.println("Pattern switch area: " + ShapeDispatch.areaBySwitch(shapes.get(1)));
+        System.out.println("Sorted batch total area: " + ShapeDispatch.SortedBatch.of(shapes).totalArea());
+
+        // 6. Color dictionary
+        Circle a = ShapeFactory.circle(new String("Red"), 1.0);
+        Circle b = ShapeFactory.circle(new String("Red"), 2.0);
+        System.out.println("Interned colors shared: " + (a.getColor() == b.getColor()));
+        double[] byColor = columns.totalAreaByColor();
+        for (int id = 0; id < byColor.length; id++) {
+            System.out.println("  " + columns.dictionary().color(id) + " area: " + byColor[id]);
+        }
+
+        // 7. Hash-consing
+        Circle first = CanonicalShapes.circle("Red", 5.0);
+        Circle second = CanonicalShapes.circle(new String("Red"), 5.0);
+        System.out.println("Canonical instances shared: " + (first == second));
+
+        // 8. Fused metrics
+        double[] perimeters = new double[columns.size()];
+        double[] boundWidths = new double[columns.size()];
+        double[] boundHeights = new double[columns.size()];
+        columns.metrics(areas, perimeters, boundWidths, boundHeights);
+        System.out.println("Perimeters: " + Arrays.toString(perimeters));
+
+        // 9. Float32 compact mode
+        CompactShapeColumns compact = CompactShapeColumns.of(shapes);
+        System.out.println("Compact total area: " + compact.totalArea());
+    }
+}
+
+/*
+ * SUMMARY OF SHAPE PERFORMANCE PATTERNS:
+ *
+ * 1.  Columnar Store:         class with one primitive array per field (Structure of Arrays)
+ * 2.  Bulk Area Kernels:      interface AreaKernel + scalar/SIMD implementations chosen at startup
+ * 3.  Fork/Join Aggregation: Spliterator (SIZED | SUBSIZED) + RecursiveTask per-subtype stats
+ * 4.  Deterministic Sum:      fixed-size blocks + Neumaier summation + fold in block order
+ * 5.  Tag Dispatch:           switch (shape) { case Circle c -> ... } / switch (tag) / type-sorted batches
+ * 6.  Color Dictionary:       String <-> dense id table, interning factory, group-by on ids
+ * 7.  Hash-Consing:           ConcurrentHashMap of WeakReference keys + ReferenceQueue purge
+ * 8.  Fused Metrics:          one loop writing area, perimeter and bounds to caller arrays
+ * 9.  Float32 Compact Mode:   float[] dimension columns, widened to double for arithmetic
+ */
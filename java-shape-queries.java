@@ -0,0 +1,533 @@
+// =============================================================================
+// QUERY STRUCTURES OVER SHAPE COLLECTIONS
+// =============================================================================
+// Companion to java-all-class-types.java and java-shape-performance.java
+// (ShapeWorkloads, ShapeAreaStats). Compile them together:
+//     javac java-all-class-types.java java-benchmark-utils.java \
+//           java-shape-performance.java java-shape-queries.java
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.*;
+import java.util.random.RandomGenerator;
+
+// 1. AREA-WEIGHTED SAMPLING (Walker/Vose alias method)
+// Technique: two-level alias tables (blocks of shapes + a table over blocks)
+//
+// A single alias table gives O(1) sampling but must be rebuilt from scratch on
+// any change. Here shapes live in fixed-size blocks, each with its own alias
+// table over its areas, and a small top-level alias table picks a block in
+// proportion to its total area. Sampling is two O(1) lookups. A batch of adds
+// or removes only rebuilds the blocks it touched plus the top-level table,
+// which has one entry per BLOCK_SIZE shapes.
+class AreaWeightedSampler {
+    static final int BLOCK_SIZE = 1024;
+
+    private final List<Block> blocks = new ArrayList<>();
+    private final Map<Shape, Block> blockOf = new IdentityHashMap<>();
+    private final Set<Block> dirty = Collections.newSetFromMap(new IdentityHashMap<>());
+    private AliasTable top = AliasTable.EMPTY;
+    private double[] blockWeights = new double[0];
+    private int size;
+
+    public AreaWeightedSampler() {}
+
+    public AreaWeightedSampler(Collection<? extends Shape> shapes) {
+        addAll(shapes);
+    }
+
+    public int size() { return size; }
+
+    // Batch add; identical instances are ignored
+    public void addAll(Collection<? extends Shape> shapes) {
+        Block last = blocks.isEmpty() ? null : blocks.get(blocks.size() - 1);
+        for (Shape shape : shapes) {
+            if (blockOf.containsKey(shape)) {
+                continue;
+            }
+            if (last == null || last.size == BLOCK_SIZE) {
+                last = new Block();
+                blocks.add(last);
+            }
+            last.add(shape);
+            blockOf.put(shape, last);
+            dirty.add(last);
+            size++;
+        }
+        rebuild();
+    }
+
+    // Batch remove by identity
+    public void removeAll(Collection<? extends Shape> shapes) {
+        for (Shape shape : shapes) {
+            Block block = blockOf.remove(shape);
+            if (block != null) {
+                block.remove(shape);
+                dirty.add(block);
+                size--;
+            }
+        }
+        blocks.removeIf(block -> block.size == 0);
+        rebuild();
+    }
+
+    public Shape sample(RandomGenerator random) {
+        if (top.isEmpty()) {
+            throw new IllegalStateException("No shape with positive area to sample");
+        }
+        Block block = blocks.get(top.sample(random));
+        return block.shapes[block.table.sample(random)];
+    }
+
+    private void rebuild() {
+        for (Block block : dirty) {
+            block.rebuild();
+        }
+        dirty.clear();
+        if (blockWeights.length != blocks.size()) {
+            blockWeights = new double[blocks.size()];
+        }
+        for (int i = 0; i < blockWeights.length; i++) {
+            blockWeights[i] = blocks.get(i).totalArea;
+        }
+        top = AliasTable.build(blockWeights, blockWeights.length);
+    }
+
+    private static final class Block {
+        final Shape[] shapes = new Shape[BLOCK_SIZE];
+        final double[] areas = new double[BLOCK_SIZE];
+        int size;
+        double totalArea;
+        AliasTable table = AliasTable.EMPTY;
+
+        void add(Shape shape) {
+            shapes[size] = shape;
+            areas[size] = shape.calculateArea();
+            size++;
+        }
+
+        void remove(Shape shape) {
+            for (int i = 0; i < size; i++) {
+                if (shapes[i] == shape) {
+                    size--;
+                    shapes[i] = shapes[size];
+                    areas[i] = areas[size];
+                    shapes[size] = null;
+                    return;
+                }
+            }
+        }
+
+        void rebuild() {
+            table = AliasTable.build(areas, size);
+            totalArea = table.totalWeight();
+        }
+    }
+
+    // Vose's alias method over the first n weights
+    static final class AliasTable {
+        static final AliasTable EMPTY = new AliasTable(new double[0], new int[0], 0.0);
+
+        private final double[] probability;
+        private final int[] alias;
+        private final double totalWeight;
+
+        private AliasTable(double[] probability, int[] alias, double totalWeight) {
+            this.probability = probability;
+            this.alias = alias;
+            this.totalWeight = totalWeight;
+        }
+
+        static AliasTable build(double[] weights, int n) {
+            double total = 0.0;
+            for (int i = 0; i < n; i++) {
+                if (!(weights[i] >= 0) || Double.isInfinite(weights[i])) {
+                    throw new IllegalArgumentException("Weight must be finite and non-negative: " + weights[i]);
+                }
+                total += weights[i];
+            }
+            if (total == 0.0) {
+                return EMPTY;
+            }
+            double[] probability = new double[n];
+            int[] alias = new int[n];
+            double[] scaled = new double[n];
+            int[] small = new int[n];
+            int[] large = new int[n];
+            int smallCount = 0, largeCount = 0;
+            for (int i = 0; i < n; i++) {
+                scaled[i] = weights[i] * n / total;
+                if (scaled[i] < 1.0) {
+                    small[smallCount++] = i;
+                } else {
+                    large[largeCount++] = i;
+                }
+            }
+            while (smallCount > 0 && largeCount > 0) {
+                int less = small[--smallCount];
+                int more = large[--largeCount];
+                probability[less] = scaled[less];
+                alias[less] = more;
+                scaled[more] = (scaled[more] + scaled[less]) - 1.0;
+                if (scaled[more] < 1.0) {
+                    small[smallCount++] = more;
+                } else {
+                    large[largeCount++] = more;
+                }
+            }
+            // Leftovers are 1.0 up to rounding error
+            while (largeCount > 0) {
+                probability[large[--largeCount]] = 1.0;
+            }
+            while (smallCount > 0) {
+                probability[small[--smallCount]] = 1.0;
+            }
+            return new AliasTable(probability, alias, total);
+        }
+
+        boolean isEmpty() {
+            return probability.length == 0;
+        }
+
+        double totalWeight() {
+            return totalWeight;
+        }
+
+        int sample(RandomGenerator random) {
+            int column = random.nextInt(probability.length);
+            return random.nextDouble() < probability[column] ? column : alias[column];
+        }
+    }
+}
+
+// Alias sampler vs prefix-sum + binary search: sampling throughput and the
+// cost of absorbing a batch of 1,000 new shapes.
+class AreaWeightedSamplerBenchmark {
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int draws = 5_000_000;
+        List<Shape> shapes = new ArrayList<>(ShapeWorkloads.mixed(n, 3));
+        List<Shape> batch = ShapeWorkloads.mixed(1_000, 4);
+        SplittableRandom random = new SplittableRandom(5);
+
+        AreaWeightedSampler sampler = new AreaWeightedSampler(shapes);
+        double[] prefix = prefixSums(shapes);
+
+        MicroBench.measure("prefix-sum + binary search (" + draws + ")", 3, 10, () -> {
+            double total = prefix[prefix.length - 1];
+            double sum = 0;
+            for (int i = 0; i < draws; i++) {
+                int index = Arrays.binarySearch(prefix, random.nextDouble() * total);
+                sum += shapes.get(index < 0 ? -index - 1 : index).calculateArea();
+            }
+            return sum;
+        });
+        MicroBench.measure("alias sampler (" + draws + ")", 3, 10, () -> {
+            double sum = 0;
+            for (int i = 0; i < draws; i++) {
+                sum += sampler.sample(random).calculateArea();
+            }
+            return sum;
+        });
+
+        MicroBench.measure("prefix-sum rebuild after batch add", 3, 10, () -> {
+            shapes.addAll(batch);
+            double[] rebuilt = prefixSums(shapes);
+            shapes.subList(shapes.size() - batch.size(), shapes.size()).clear();
+            return rebuilt[rebuilt.length - 1];
+        });
+        MicroBench.measure("alias incremental batch add + remove", 3, 10, () -> {
+            sampler.addAll(batch);
+            sampler.removeAll(batch);
+            return sampler.size();
+        });
+    }
+
+    private static double[] prefixSums(List<Shape> shapes) {
+        double[] prefix = new double[shapes.size()];
+        double running = 0;
+        for (int i = 0; i < prefix.length; i++) {
+            running += shapes.get(i).calculateArea();
+            prefix[i] = running;
+        }
+        return prefix;
+    }
+}
+
+// 2. CONCURRENT ORDERED AREA INDEX
+// Technique: ConcurrentSkipListMap keyed by (area, insertion sequence)
+//
+// Area is computed once at insert time and lives in the key, so range scans
+// and counts never call calculateArea() again. The sequence number makes keys
+// unique, so equal areas do not overwrite each other. There is one skip list
+// for all shapes and one per color; inserts are lock-free and may run from any
+// number of threads while queries are in progress (scans are weakly consistent).
+// Range scans and counts are O(log n + k) for k matches: the skip list keeps no
+// rank counts, so a count walks its matches.
+class AreaIndex {
+    record AreaKey(double area, long sequence) implements Comparable<AreaKey> {
+        @Override
+        public int compareTo(AreaKey other) {
+            int byArea = Double.compare(area, other.area);
+            return byArea != 0 ? byArea : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    private final ConcurrentSkipListMap<AreaKey, Shape> all = new ConcurrentSkipListMap<>();
+    private final ConcurrentHashMap<String, ConcurrentSkipListMap<AreaKey, Shape>> byColor = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+
+    public void insert(Shape shape) {
+        double area = shape.calculateArea();
+        if (Double.isNaN(area)) {
+            throw new IllegalArgumentException("Cannot index a shape with NaN area");
+        }
+        AreaKey key = new AreaKey(area, sequence.getAndIncrement());
+        all.put(key, shape);
+        byColor.computeIfAbsent(shape.getColor(), color -> new ConcurrentSkipListMap<>()).put(key, shape);
+    }
+
+    public void insertAll(Collection<? extends Shape> shapes) {
+        for (Shape shape : shapes) {
+            insert(shape);
+        }
+    }
+
+    public int size() {
+        return all.size();
+    }
+
+    // Shapes with minArea <= area <= maxArea, ascending by area
+    public List<Shape> range(double minArea, double maxArea) {
+        return new ArrayList<>(slice(all, minArea, maxArea).values());
+    }
+
+    public List<Shape> range(String color, double minArea, double maxArea) {
+        ConcurrentSkipListMap<AreaKey, Shape> index = byColor.get(color);
+        return index == null ? List.of() : new ArrayList<>(slice(index, minArea, maxArea).values());
+    }
+
+    // Visits each match with its precomputed area
+    public void forEachInRange(double minArea, double maxArea, ObjDoubleConsumer<Shape> action) {
+        for (Map.Entry<AreaKey, Shape> entry : slice(all, minArea, maxArea).entrySet()) {
+            action.accept(entry.getValue(), entry.getKey().area());
+        }
+    }
+
+    // Linear in the number of matches, not O(log n)
+    public int count(double minArea, double maxArea) {
+        return slice(all, minArea, maxArea).size();
+    }
+
+    public int count(String color, double minArea, double maxArea) {
+        ConcurrentSkipListMap<AreaKey, Shape> index = byColor.get(color);
+        return index == null ? 0 : slice(index, minArea, maxArea).size();
+    }
+
+    private static ConcurrentNavigableMap<AreaKey, Shape> slice(
+            ConcurrentSkipListMap<AreaKey, Shape> index, double minArea, double maxArea) {
+        if (Double.isNaN(minArea) || Double.isNaN(maxArea)) {
+            throw new IllegalArgumentException("Area bounds must not be NaN");
+        }
+        if (minArea > maxArea) {
+            return new ConcurrentSkipListMap<>();
+        }
+        return index.subMap(new AreaKey(minArea, Long.MIN_VALUE), true, new AreaKey(maxArea, Long.MAX_VALUE), true);
+    }
+}
+
+// 3. INCREMENTALLY MAINTAINED AGGREGATES
+// Technique: per-group running sums + sorted multiset of areas for min/max
+//
+// ShapeCollection is a bag of shapes that keeps count, sum, min and max of area
+// for the whole bag, per color and per concrete subtype up to date on every
+// add/remove, so reads are O(1). Each group also keeps its areas in a sorted
+// multiset, so removing the current min or max is an O(log n) step to the next
+// one rather than a rescan. Sums use Neumaier compensation because a long run
+// of add/remove pairs would otherwise accumulate rounding drift.
+// remove() takes back the area recorded when the shape was added rather than
+// calling calculateArea() again, so a Triangle subclass whose area is not a
+// pure function of its fields cannot unbalance the groups.
+// Methods are synchronized, so pollers can read while writers update.
+class ShapeCollection {
+    record AreaAggregate(long count, double sum, double min, double max) {
+        static final AreaAggregate EMPTY = new AreaAggregate(0, 0.0, Double.NaN, Double.NaN);
+    }
+
+    // shape -> areas recorded for each added copy; the deque size is the multiplicity
+    private final Map<Shape, ArrayDeque<Double>> added = new HashMap<>();
+    private final Group total = new Group();
+    private final Map<String, Group> byColor = new HashMap<>();
+    private final Group[] bySubtype = {new Group(), new Group(), new Group()};
+
+    public synchronized void add(Shape shape) {
+        double area = shape.calculateArea();
+        added.computeIfAbsent(shape, s -> new ArrayDeque<>()).push(area);
+        total.add(area);
+        byColor.computeIfAbsent(shape.getColor(), color -> new Group()).add(area);
+        bySubtype[ShapeAreaStats.kindOf(shape)].add(area);
+    }
+
+    public void addAll(Collection<? extends Shape> shapes) {
+        for (Shape shape : shapes) {
+            add(shape);
+        }
+    }
+
+    // Removes one shape equal to the argument; returns false if there was none
+    public synchronized boolean remove(Shape shape) {
+        ArrayDeque<Double> areas = added.get(shape);
+        if (areas == null) {
+            return false;
+        }
+        double area = areas.pop();
+        if (areas.isEmpty()) {
+            added.remove(shape);
+        }
+        total.remove(area);
+        Group color = byColor.get(shape.getColor());
+        color.remove(area);
+        if (color.count == 0) {
+            byColor.remove(shape.getColor());
+        }
+        bySubtype[ShapeAreaStats.kindOf(shape)].remove(area);
+        return true;
+    }
+
+    public synchronized boolean contains(Shape shape) {
+        return added.containsKey(shape);
+    }
+
+    public synchronized long size() {
+        return total.count;
+    }
+
+    public synchronized AreaAggregate total() {
+        return total.snapshot();
+    }
+
+    public synchronized AreaAggregate byColor(String color) {
+        Group group = byColor.get(color);
+        return group == null ? AreaAggregate.EMPTY : group.snapshot();
+    }
+
+    // kind is ShapeColumns.CIRCLE, RECTANGLE or TRIANGLE
+    public synchronized AreaAggregate bySubtype(byte kind) {
+        return bySubtype[kind].snapshot();
+    }
+
+    public synchronized Set<String> colors() {
+        return new HashSet<>(byColor.keySet());
+    }
+
+    private static final class Group {
+        long count;
+        double sum, compensation;
+        double min = Double.NaN, max = Double.NaN;
+        // area -> multiplicity
+        final TreeMap<Double, int[]> areas = new TreeMap<>();
+
+        void add(double area) {
+            count++;
+            accumulate(area);
+            areas.computeIfAbsent(area, a -> new int[1])[0]++;
+            if (count == 1 || area < min) {
+                min = area;
+            }
+            if (count == 1 || area > max) {
+                max = area;
+            }
+        }
+
+        void remove(double area) {
+            int[] multiplicity = areas.get(area);
+            if (--multiplicity[0] == 0) {
+                areas.remove(area);
+            }
+            count--;
+            accumulate(-area);
+            if (count == 0) {
+                sum = compensation = 0.0;
+                min = max = Double.NaN;
+                return;
+            }
+            // Only a removed extreme needs the next one from the multiset
+            if (multiplicity[0] == 0 && area == min) {
+                min = areas.firstKey();
+            }
+            if (multiplicity[0] == 0 && area == max) {
+                max = areas.lastKey();
+            }
+        }
+
+        private void accumulate(double value) {
+            double t = sum + value;
+            compensation += Math.abs(sum) >= Math.abs(value) ? (sum - t) + value : (value - t) + sum;
+            sum = t;
+        }
+
+        AreaAggregate snapshot() {
+            return count == 0 ? AreaAggregate.EMPTY : new AreaAggregate(count, sum + compensation, min, max);
+        }
+    }
+}
+
+// DEMONSTRATION CLASS
+class ShapeQueriesDemo {
+    public static void main(String[] args) {
+        System.out.println("=== SHAPE QUERY STRUCTURES ===\n");
+
+        Circle big = new Circle("Red", 10.0);
+        Rectangle small = new Rectangle("Blue", 1.0, 1.0);
+        List<Shape> shapes = List.of(big, small);
+
+        // 1. Area-weighted sampling
+        AreaWeightedSampler sampler = new AreaWeightedSampler(shapes);
+        SplittableRandom random = new SplittableRandom(1);
+        int bigHits = 0;
+        for (int i = 0; i < 100_000; i++) {
+            if (sampler.sample(random) == big) {
+                bigHits++;
+            }
+        }
+        System.out.printf("Circle sampled %.4f of the time (expected %.4f)%n",
+            bigHits / 100_000.0, big.calculateArea() / (big.calculateArea() + small.calculateArea()));
+
+        // 2. Ordered area index
+        AreaIndex index = new AreaIndex();
+        index.insertAll(ShapeWorkloads.mixed(100_000, 9));
+        System.out.println("Shapes with area in [10, 20]: " + index.count(10, 20));
+        System.out.println("Red shapes with area in [10, 20]: " + index.count("Red", 10, 20));
+
+        // 3. Incremental aggregates
+        ShapeCollection collection = new ShapeCollection();
+        collection.addAll(List.of(big, small, new Circle("Red", 1.0)));
+        System.out.println("Red before remove: " + collection.byColor("Red"));
+        collection.remove(new Circle("Red", 10.0));
+        System.out.println("Red after removing its max: " + collection.byColor("Red"));
+
+        // Removal uses the area recorded at add time, even if the shape's area changed since
+        class ScaledTriangle extends Triangle {
+            double scale = 1.0;
+            ScaledTriangle(String color, double base, double height) { super(color, base, height); }
+            @Override
+            public double calculateArea() { return scale * super.calculateArea(); }
+        }
+        ScaledTriangle scaled = new ScaledTriangle("Green", 2.0, 3.0);
+        ShapeCollection triangles = new ShapeCollection();
+        triangles.add(scaled);
+        scaled.scale = 2.0;
+        if (!triangles.remove(scaled) || triangles.size() != 0 || triangles.bySubtype(ShapeColumns.TRIANGLE).count() != 0) {
+            throw new AssertionError("Remove did not undo the add");
+        }
+    }
+}
+
+/*
+ * SUMMARY OF SHAPE QUERY STRUCTURES:
+ *
+ * 1.  Alias Sampler:          Vose alias tables per block + one over blocks, batch rebuild of dirty blocks
+ * 2.  Area Index:             ConcurrentSkipListMap<(area, seq), Shape> overall and per color
+ * 3.  Incremental Aggregates: running Neumaier sums + TreeMap multiset per color/subtype, O(1) reads
+ */
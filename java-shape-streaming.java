@@ -0,0 +1,578 @@
+// =============================================================================
+// STREAMING OPERATORS OVER SHAPE STREAMS
+// =============================================================================
+// Companion to java-all-class-types.java and java-shape-performance.java
+// (ColorDictionary, ShapeWorkloads). Compile them together:
+//     javac java-all-class-types.java java-benchmark-utils.java \
+//           java-shape-performance.java java-shape-streaming.java
+//
+// Every operator here keeps bounded state no matter how many shapes it sees
+// and is not thread-safe on its own. The aggregating ones (sections 1-3) have
+// a merge method: give each thread its own instance and merge at the end (this
+// is exactly the shape Stream.collect(supplier, accumulator, combiner) expects).
+
+import java.util.*;
+import java.util.function.*;
+
+// 1. BOUNDED TOP-K
+// Technique: min-heap of size k on primitive arrays (no PriorityQueue boxing)
+//
+// The heap root is the smallest of the current top k, so a new shape only
+// costs one comparison unless it beats the root. Each area is computed once.
+class TopKShapes {
+    private final int k;
+    private final double[] areas;
+    private final Shape[] shapes;
+    private int size;
+
+    public TopKShapes(int k) {
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be positive");
+        }
+        this.k = k;
+        this.areas = new double[k];
+        this.shapes = new Shape[k];
+    }
+
+    public void accept(Shape shape) {
+        offer(shape.calculateArea(), shape);
+    }
+
+    private void offer(double area, Shape shape) {
+        if (size < k) {
+            areas[size] = area;
+            shapes[size] = shape;
+            siftUp(size++);
+        } else if (area > areas[0]) {
+            areas[0] = area;
+            shapes[0] = shape;
+            siftDown(0);
+        }
+    }
+
+    public TopKShapes merge(TopKShapes other) {
+        for (int i = 0; i < other.size; i++) {
+            offer(other.areas[i], other.shapes[i]);
+        }
+        return this;
+    }
+
+    // Largest area first
+    public List<Shape> result() {
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(areas[b], areas[a]));
+        List<Shape> result = new ArrayList<>(size);
+        for (int i : order) {
+            result.add(shapes[i]);
+        }
+        return result;
+    }
+
+    public int size() { return size; }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (areas[parent] <= areas[i]) {
+                return;
+            }
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            int left = 2 * i + 1;
+            if (left >= size) {
+                return;
+            }
+            int smallest = left + 1 < size && areas[left + 1] < areas[left] ? left + 1 : left;
+            if (areas[i] <= areas[smallest]) {
+                return;
+            }
+            swap(i, smallest);
+            i = smallest;
+        }
+    }
+
+    private void swap(int a, int b) {
+        double area = areas[a];
+        areas[a] = areas[b];
+        areas[b] = area;
+        Shape shape = shapes[a];
+        shapes[a] = shapes[b];
+        shapes[b] = shape;
+    }
+}
+
+// 2. MERGEABLE QUANTILE SKETCH (KLL)
+// Technique: hierarchy of compactors; an item at level h stands for 2^h inputs
+//
+// When a level fills up it is sorted and every other item (random odd/even
+// offset) is promoted to the next level with double weight; an odd leftover
+// stays behind, so total weight always equals the number of inputs. Capacities
+// shrink by 2/3 per level below the top, so memory is about 3k doubles plus
+// two per level, and there are at most 64 levels for a long-sized stream.
+// Rank error shrinks as O(1/k); the default k = 200 keeps it around 1-2%.
+class KllSketch {
+    static final int DEFAULT_K = 200;
+
+    private final int k;
+    private double[][] levels = new double[1][];
+    private int[] sizes = new int[1];
+    private int numLevels = 1;
+    private long count;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+    private long randomState = 0x9E3779B97F4A7C15L;
+
+    public KllSketch() {
+        this(DEFAULT_K);
+    }
+
+    public KllSketch(int k) {
+        if (k < 8) {
+            throw new IllegalArgumentException("k must be at least 8");
+        }
+        this.k = k;
+        levels[0] = new double[k];
+    }
+
+    public void update(double value) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+        count++;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+        append(0, value);
+        if (sizes[0] >= capacity(0)) {
+            compress();
+        }
+    }
+
+    public KllSketch merge(KllSketch other) {
+        if (other.k != k) {
+            throw new IllegalArgumentException("Cannot merge sketches with different k: " + k + " vs " + other.k);
+        }
+        if (other.count == 0) {
+            return this;
+        }
+        while (numLevels < other.numLevels) {
+            addLevel();
+        }
+        for (int h = 0; h < other.numLevels; h++) {
+            for (int i = 0; i < other.sizes[h]; i++) {
+                append(h, other.levels[h][i]);
+            }
+        }
+        count += other.count;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+        compress();
+        return this;
+    }
+
+    public long count() { return count; }
+
+    // Approximate value at normalized rank q in [0, 1]
+    public double quantile(double q) {
+        if (q < 0 || q > 1) {
+            throw new IllegalArgumentException("Quantile must be in [0, 1]: " + q);
+        }
+        if (count == 0) {
+            return Double.NaN;
+        }
+        if (q == 0) {
+            return min;
+        }
+        if (q == 1) {
+            return max;
+        }
+        int retained = 0;
+        for (int h = 0; h < numLevels; h++) {
+            retained += sizes[h];
+        }
+        // Sort retained items by value, carrying their weights along
+        double[] values = new double[retained];
+        int[] levelOf = new int[retained];
+        Integer[] order = new Integer[retained];
+        int n = 0;
+        for (int h = 0; h < numLevels; h++) {
+            for (int i = 0; i < sizes[h]; i++) {
+                values[n] = levels[h][i];
+                levelOf[n] = h;
+                order[n] = n;
+                n++;
+            }
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(values[a], values[b]));
+        double target = q * count;
+        long cumulative = 0;
+        for (int i : order) {
+            cumulative += 1L << levelOf[i];
+            if (cumulative >= target) {
+                return values[i];
+            }
+        }
+        return max;
+    }
+
+    private int capacity(int level) {
+        int depth = numLevels - 1 - level;
+        return Math.max(2, (int) Math.ceil(k * Math.pow(2.0 / 3.0, depth)));
+    }
+
+    private void append(int level, double value) {
+        if (sizes[level] == levels[level].length) {
+            levels[level] = Arrays.copyOf(levels[level], Math.max(2, levels[level].length * 2));
+        }
+        levels[level][sizes[level]++] = value;
+    }
+
+    private void addLevel() {
+        levels = Arrays.copyOf(levels, numLevels + 1);
+        sizes = Arrays.copyOf(sizes, numLevels + 1);
+        levels[numLevels] = new double[2];
+        numLevels++;
+    }
+
+    private void compress() {
+        for (int h = 0; h < numLevels; h++) {
+            if (sizes[h] < capacity(h)) {
+                continue;
+            }
+            if (h + 1 == numLevels) {
+                addLevel();
+            }
+            double[] level = levels[h];
+            int size = sizes[h];
+            Arrays.sort(level, 0, size);
+            // Odd leftover (the largest) stays at this level
+            int pairs = size & ~1;
+            int offset = nextBit();
+            for (int i = offset; i < pairs; i += 2) {
+                append(h + 1, level[i]);
+            }
+            if ((size & 1) != 0) {
+                level[0] = level[size - 1];
+                sizes[h] = 1;
+            } else {
+                sizes[h] = 0;
+            }
+        }
+    }
+
+    private int nextBit() {
+        // xorshift64: cheap, deterministic per sketch
+        randomState ^= randomState << 13;
+        randomState ^= randomState >>> 7;
+        randomState ^= randomState << 17;
+        return (int) (randomState & 1);
+    }
+}
+
+// 3. PER-COLOR AREA QUANTILES
+// Technique: one KllSketch per ColorDictionary id, in an array
+class ColorAreaQuantiles {
+    private final int k;
+    private KllSketch[] sketches = new KllSketch[0];
+
+    public ColorAreaQuantiles() {
+        this(KllSketch.DEFAULT_K);
+    }
+
+    public ColorAreaQuantiles(int k) {
+        this.k = k;
+    }
+
+    public void accept(Shape shape) {
+        sketch(ColorDictionary.shared().idOf(shape.getColor())).update(shape.calculateArea());
+    }
+
+    public ColorAreaQuantiles merge(ColorAreaQuantiles other) {
+        for (int id = 0; id < other.sketches.length; id++) {
+            if (other.sketches[id] != null) {
+                sketch(id).merge(other.sketches[id]);
+            }
+        }
+        return this;
+    }
+
+    public double quantile(String color, double q) {
+        int id = ColorDictionary.shared().lookup(color);
+        return id >= 0 && id < sketches.length && sketches[id] != null ? sketches[id].quantile(q) : Double.NaN;
+    }
+
+    public long count(String color) {
+        int id = ColorDictionary.shared().lookup(color);
+        return id >= 0 && id < sketches.length && sketches[id] != null ? sketches[id].count() : 0;
+    }
+
+    private KllSketch sketch(int id) {
+        if (id >= sketches.length) {
+            sketches = Arrays.copyOf(sketches, Math.max(id + 1, sketches.length * 2));
+        }
+        if (sketches[id] == null) {
+            sketches[id] = new KllSketch(k);
+        }
+        return sketches[id];
+    }
+}
+
+// 4. WINDOWED PER-COLOR AGGREGATION
+// Technique: pre-aggregated panes in a ring buffer + watermark with allowed lateness
+//
+// Windows of length size start every slide time units (slide == size gives
+// tumbling windows). Time is cut into panes of gcd(size, slide), and each event
+// is added to exactly one pane: sum, count and max of area per color id, in
+// primitive arrays. A window result is the combination of its panes, so
+// overlapping sliding windows never re-sum raw events.
+//
+// The watermark is the largest timestamp seen minus allowedLateness. A window
+// is emitted once the watermark passes its end; events that arrive late but
+// still within allowedLateness land in their pane normally. An event whose
+// windows have all been emitted already is counted in lateEvents() and dropped.
+// Panes no future window needs are recycled, so state is a fixed ring of
+// (size + allowedLateness) / pane + 2 panes, each one array slot per color.
+class WindowedColorAggregator {
+    record WindowResult(long start, long end, double[] sums, long[] counts, double[] maxs) {
+        // Lookups never register a color: unknown colors read as empty
+        public double sum(String color) {
+            int id = ColorDictionary.shared().lookup(color);
+            return id >= 0 && id < sums.length ? sums[id] : 0.0;
+        }
+
+        public long count(String color) {
+            int id = ColorDictionary.shared().lookup(color);
+            return id >= 0 && id < counts.length ? counts[id] : 0;
+        }
+
+        public double max(String color) {
+            int id = ColorDictionary.shared().lookup(color);
+            return id >= 0 && id < maxs.length && counts[id] > 0 ? maxs[id] : Double.NaN;
+        }
+    }
+
+    private final long size, slide, allowedLateness, pane;
+    private final Consumer<WindowResult> sink;
+
+    // Ring of panes: slotPane[slot] is the pane index held there, or EMPTY
+    private static final long EMPTY = Long.MIN_VALUE;
+    private final long[] slotPane;
+    private double[][] sums, maxs;
+    private long[][] counts;
+    private int colorCapacity = 8;
+    private int heldPanes;
+    private long firstLivePane;
+
+    private long maxTimestamp = Long.MIN_VALUE;
+    private long nextWindowStart;
+    private boolean started;
+    private long lateEvents;
+
+    public WindowedColorAggregator(long size, long slide, long allowedLateness, Consumer<WindowResult> sink) {
+        if (size <= 0 || slide <= 0 || slide > size || allowedLateness < 0) {
+            throw new IllegalArgumentException("Need 0 < slide <= size and allowedLateness >= 0");
+        }
+        this.size = size;
+        this.slide = slide;
+        this.allowedLateness = allowedLateness;
+        this.pane = gcd(size, slide);
+        this.sink = Objects.requireNonNull(sink);
+        int ring = Math.toIntExact((size + allowedLateness) / pane + 2);
+        this.slotPane = new long[ring];
+        Arrays.fill(slotPane, EMPTY);
+        this.sums = new double[ring][colorCapacity];
+        this.maxs = new double[ring][colorCapacity];
+        this.counts = new long[ring][colorCapacity];
+    }
+
+    public static WindowedColorAggregator tumbling(long size, long allowedLateness, Consumer<WindowResult> sink) {
+        return new WindowedColorAggregator(size, size, allowedLateness, sink);
+    }
+
+    public void accept(Shape shape, long timestamp) {
+        if (!started) {
+            // Earliest window that could still receive this event or a late one
+            nextWindowStart = Math.floorDiv(timestamp - size - allowedLateness, slide) * slide + slide;
+            firstLivePane = Math.floorDiv(nextWindowStart, pane);
+            started = true;
+        }
+        if (timestamp > maxTimestamp) {
+            maxTimestamp = timestamp;
+            advance(maxTimestamp - allowedLateness);
+        }
+        long paneIndex = Math.floorDiv(timestamp, pane);
+        if (paneIndex * pane < nextWindowStart) {
+            lateEvents++;
+            return;
+        }
+        int color = ColorDictionary.shared().idOf(shape.getColor());
+        if (color >= colorCapacity) {
+            growColors(color + 1);
+        }
+        int slot = slotOf(paneIndex);
+        double area = shape.calculateArea();
+        sums[slot][color] += area;
+        counts[slot][color]++;
+        maxs[slot][color] = counts[slot][color] == 1 ? area : Math.max(maxs[slot][color], area);
+    }
+
+    // End of stream: emit every window that has received data
+    public void flush() {
+        if (started) {
+            advance(Math.floorDiv(maxTimestamp, pane) * pane + pane + size);
+        }
+    }
+
+    public long lateEvents() { return lateEvents; }
+
+    private void advance(long watermark) {
+        while (nextWindowStart + size <= watermark) {
+            emit(nextWindowStart);
+            nextWindowStart += slide;
+            // Panes entirely before the next window are no longer needed;
+            // only the panes this step retires are touched, not the whole ring
+            long retiredUpTo = Math.floorDiv(nextWindowStart, pane);
+            for (long p = firstLivePane; p < retiredUpTo; p++) {
+                int slot = (int) Math.floorMod(p, (long) slotPane.length);
+                if (slotPane[slot] == p) {
+                    clear(slot);
+                }
+            }
+            firstLivePane = retiredUpTo;
+            if (heldPanes == 0 && nextWindowStart + size <= watermark) {
+                // Timestamp jumped past every held pane: the windows in the gap
+                // are all empty, so step over them at once instead of one by one
+                nextWindowStart += (Math.floorDiv(watermark - size - nextWindowStart, slide) + 1) * slide;
+                firstLivePane = Math.floorDiv(nextWindowStart, pane);
+            }
+        }
+    }
+
+    private void emit(long start) {
+        double[] windowSums = new double[colorCapacity];
+        long[] windowCounts = new long[colorCapacity];
+        double[] windowMaxs = new double[colorCapacity];
+        Arrays.fill(windowMaxs, Double.NEGATIVE_INFINITY);
+        boolean any = false;
+        for (long p = Math.floorDiv(start, pane), end = Math.floorDiv(start + size, pane); p < end; p++) {
+            int slot = (int) Math.floorMod(p, (long) slotPane.length);
+            if (slotPane[slot] != p) {
+                continue;
+            }
+            any = true;
+            for (int color = 0; color < colorCapacity; color++) {
+                if (counts[slot][color] > 0) {
+                    windowSums[color] += sums[slot][color];
+                    windowCounts[color] += counts[slot][color];
+                    windowMaxs[color] = Math.max(windowMaxs[color], maxs[slot][color]);
+                }
+            }
+        }
+        if (any) {
+            sink.accept(new WindowResult(start, start + size, windowSums, windowCounts, windowMaxs));
+        }
+    }
+
+    private int slotOf(long paneIndex) {
+        int slot = (int) Math.floorMod(paneIndex, (long) slotPane.length);
+        if (slotPane[slot] != paneIndex) {
+            // Ring is sized so a live pane never collides with another live pane
+            if (slotPane[slot] != EMPTY) {
+                clear(slot);
+            }
+            slotPane[slot] = paneIndex;
+            heldPanes++;
+        }
+        return slot;
+    }
+
+    private void clear(int slot) {
+        slotPane[slot] = EMPTY;
+        heldPanes--;
+        Arrays.fill(sums[slot], 0.0);
+        Arrays.fill(counts[slot], 0);
+        Arrays.fill(maxs[slot], 0.0);
+    }
+
+    private void growColors(int needed) {
+        int capacity = Math.max(needed, colorCapacity * 2);
+        for (int slot = 0; slot < slotPane.length; slot++) {
+            sums[slot] = Arrays.copyOf(sums[slot], capacity);
+            counts[slot] = Arrays.copyOf(counts[slot], capacity);
+            maxs[slot] = Arrays.copyOf(maxs[slot], capacity);
+        }
+        colorCapacity = capacity;
+    }
+
+    private static long gcd(long a, long b) {
+        while (b != 0) {
+            long t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+}
+
+// DEMONSTRATION CLASS
+class ShapeStreamingDemo {
+    public static void main(String[] args) {
+        System.out.println("=== STREAMING OPERATORS ===\n");
+
+        List<Shape> shapes = ShapeWorkloads.mixed(1_000_000, 11);
+
+        // 1. Top-K, computed in parallel and merged
+        TopKShapes top = shapes.parallelStream().collect(
+            () -> new TopKShapes(3), TopKShapes::accept, TopKShapes::merge);
+        for (Shape shape : top.result()) {
+            System.out.println("Top area: " + shape.calculateArea() + " (" + shape.getColor() + ")");
+        }
+
+        // 2-3. Per-color quantiles, computed in parallel and merged
+        ColorAreaQuantiles quantiles = shapes.parallelStream().collect(
+            ColorAreaQuantiles::new, ColorAreaQuantiles::accept, ColorAreaQuantiles::merge);
+        double[] exact = shapes.stream().filter(s -> s.getColor().equals("Red"))
+            .mapToDouble(Shape::calculateArea).sorted().toArray();
+        System.out.printf("Red p50: sketch %.3f, exact %.3f%n",
+            quantiles.quantile("Red", 0.5), exact[exact.length / 2]);
+        System.out.printf("Red p99: sketch %.3f, exact %.3f%n",
+            quantiles.quantile("Red", 0.99), exact[(int) (exact.length * 0.99)]);
+
+        // 4. Sliding windows of 10 time units every 5, late events up to 3 units
+        WindowedColorAggregator windows = new WindowedColorAggregator(10, 5, 3, result ->
+            System.out.printf("Window [%d, %d): Red sum %.1f, count %d, max %.1f%n", result.start(), result.end(),
+                result.sum("Red"), result.count("Red"), result.max("Red")));
+        long[] times = {1, 4, 7, 12, 9, 16, 2, 23};
+        for (long t : times) {
+            windows.accept(new Rectangle("Red", t, 1.0), t);
+        }
+        windows.flush();
+        System.out.println("Dropped late events: " + windows.lateEvents());
+
+        // A jump of many windows skips the empty gap instead of stepping through it
+        List<Long> starts = new ArrayList<>();
+        WindowedColorAggregator gap = new WindowedColorAggregator(10, 5, 0, result -> starts.add(result.start()));
+        gap.accept(new Rectangle("Red", 1, 1.0), 1);
+        gap.accept(new Rectangle("Red", 1, 1.0), 1_000_000_000_000L);
+        gap.flush();
+        if (!starts.equals(List.of(-5L, 0L, 999_999_999_995L, 1_000_000_000_000L))) {
+            throw new AssertionError("Unexpected windows around a timestamp gap: " + starts);
+        }
+    }
+}
+
+/*
+ * SUMMARY OF STREAMING OPERATORS:
+ *
+ * 1.  Bounded Top-K:          min-heap of size k on parallel primitive/object arrays
+ * 2.  KLL Quantile Sketch:    compactor levels, weight 2^h, mergeable, bounded memory
+ * 3.  Per-Color Quantiles:    KllSketch[] indexed by ColorDictionary id
+ * 4.  Windowed Aggregation:   gcd-sized panes in a ring, watermark = max time - allowed lateness
+ */
@@ -0,0 +1,163 @@
+// =============================================================================
+// SIMD AREA KERNELS WITH THE VECTOR API (jdk.incubator.vector)
+// =============================================================================
+// Optional companion to java-shape-performance.java. The Vector API is still an
+// incubator module, so this file needs it on both compile and run command lines:
+//     javac --add-modules jdk.incubator.vector java-all-class-types.java \
+//           java-shape-performance.java java-shape-vector-api.java
+//     java  --add-modules jdk.incubator.vector VectorAreaKernelDemo
+// Without the flag AreaKernels.selected() silently falls back to ScalarAreaKernel.
+
+import java.util.*;
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+// VECTOR KERNEL
+// Command: DoubleVector.fromArray(SPECIES, array, i) ... .intoArray(out, i)
+//
+// Lane-wise multiplication is plain IEEE 754 multiplication, so per-element areas
+// are bit-for-bit equal to calculateArea() as long as the operand order matches.
+// The *Sum methods keep one partial sum per lane and reduce at the end; see the
+// error bound documented on AreaKernel.
+final class VectorAreaKernel implements AreaKernel {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    // Public no-arg constructor: instantiated reflectively by AreaKernels
+    public VectorAreaKernel() {}
+
+    @Override
+    public String name() {
+        return "vector(" + SPECIES.length() + " lanes)";
+    }
+
+    @Override
+    public void circleAreas(double[] radii, int count, double[] out) {
+        int i = 0;
+        int upper = SPECIES.loopBound(count);
+        for (; i < upper; i += SPECIES.length()) {
+            DoubleVector r = DoubleVector.fromArray(SPECIES, radii, i);
+            r.mul(Math.PI).mul(r).intoArray(out, i);
+        }
+        for (; i < count; i++) {
+            out[i] = Math.PI * radii[i] * radii[i];
+        }
+    }
+
+    @Override
+    public void rectangleAreas(double[] widths, double[] heights, int count, double[] out) {
+        int i = 0;
+        int upper = SPECIES.loopBound(count);
+        for (; i < upper; i += SPECIES.length()) {
+            DoubleVector w = DoubleVector.fromArray(SPECIES, widths, i);
+            DoubleVector h = DoubleVector.fromArray(SPECIES, heights, i);
+            w.mul(h).intoArray(out, i);
+        }
+        for (; i < count; i++) {
+            out[i] = widths[i] * heights[i];
+        }
+    }
+
+    @Override
+    public void triangleAreas(double[] bases, double[] heights, int count, double[] out) {
+        int i = 0;
+        int upper = SPECIES.loopBound(count);
+        for (; i < upper; i += SPECIES.length()) {
+            DoubleVector b = DoubleVector.fromArray(SPECIES, bases, i);
+            DoubleVector h = DoubleVector.fromArray(SPECIES, heights, i);
+            b.mul(0.5).mul(h).intoArray(out, i);
+        }
+        for (; i < count; i++) {
+            out[i] = 0.5 * bases[i] * heights[i];
+        }
+    }
+
+    @Override
+    public double circleAreaSum(double[] radii, int count) {
+        DoubleVector acc = DoubleVector.zero(SPECIES);
+        int i = 0;
+        int upper = SPECIES.loopBound(count);
+        for (; i < upper; i += SPECIES.length()) {
+            DoubleVector r = DoubleVector.fromArray(SPECIES, radii, i);
+            acc = acc.add(r.mul(Math.PI).mul(r));
+        }
+        double sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < count; i++) {
+            sum += Math.PI * radii[i] * radii[i];
+        }
+        return sum;
+    }
+
+    @Override
+    public double rectangleAreaSum(double[] widths, double[] heights, int count) {
+        DoubleVector acc = DoubleVector.zero(SPECIES);
+        int i = 0;
+        int upper = SPECIES.loopBound(count);
+        for (; i < upper; i += SPECIES.length()) {
+            DoubleVector w = DoubleVector.fromArray(SPECIES, widths, i);
+            DoubleVector h = DoubleVector.fromArray(SPECIES, heights, i);
+            acc = acc.add(w.mul(h));
+        }
+        double sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < count; i++) {
+            sum += widths[i] * heights[i];
+        }
+        return sum;
+    }
+
+    @Override
+    public double triangleAreaSum(double[] bases, double[] heights, int count) {
+        DoubleVector acc = DoubleVector.zero(SPECIES);
+        int i = 0;
+        int upper = SPECIES.loopBound(count);
+        for (; i < upper; i += SPECIES.length()) {
+            DoubleVector b = DoubleVector.fromArray(SPECIES, bases, i);
+            DoubleVector h = DoubleVector.fromArray(SPECIES, heights, i);
+            acc = acc.add(b.mul(0.5).mul(h));
+        }
+        double sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < count; i++) {
+            sum += 0.5 * bases[i] * heights[i];
+        }
+        return sum;
+    }
+}
+
+// DEMONSTRATION CLASS
+// Checks bit-for-bit agreement with calculateArea() and times both kernels.
+class VectorAreaKernelDemo {
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 3_000_000;
+        Random random = new Random(42);
+        List<Shape> shapes = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            switch (i % 3) {
+                case 0 -> shapes.add(new Circle("Red", random.nextDouble() * 10));
+                case 1 -> shapes.add(new Rectangle("Blue", random.nextDouble() * 10, random.nextDouble() * 10));
+                default -> shapes.add(new Triangle("Green", random.nextDouble() * 10, random.nextDouble() * 10));
+            }
+        }
+        ShapeColumns columns = ShapeColumns.of(shapes);
+
+        AreaKernel scalar = AreaKernels.scalar();
+        AreaKernel vector = new VectorAreaKernel();
+        double[] out = new double[n];
+        columns.areas(out, vector);
+        for (int i = 0; i < n; i++) {
+            if (Double.doubleToRawLongBits(out[i]) != Double.doubleToRawLongBits(shapes.get(i).calculateArea())) {
+                throw new AssertionError("Mismatch at row " + i);
+            }
+        }
+        System.out.println("Per-element areas match calculateArea() bit-for-bit");
+
+        for (AreaKernel kernel : List.of(scalar, vector, scalar, vector)) {
+            double total = 0;
+            long start = System.nanoTime();
+            for (int rep = 0; rep < 20; rep++) {
+                total += columns.totalArea(kernel);
+            }
+            long elapsed = System.nanoTime() - start;
+            System.out.printf("%-16s %8.2f ms/pass  (total %.6e)%n", kernel.name(), elapsed / 20 / 1e6, total / 20);
+        }
+    }
+}